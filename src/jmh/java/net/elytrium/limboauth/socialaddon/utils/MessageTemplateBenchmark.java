@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.concurrent.TimeUnit;
+import net.elytrium.commons.config.Placeholders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Run with "./gradlew jmh", compares the INFO_MSG rendering against Placeholders.replace
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageTemplateBenchmark {
+
+  private static final String[] PLACEHOLDERS = {
+      "{NICKNAME}", "{SERVER}", "{IP}", "{LOCATION}", "{NOTIFY_STATUS}", "{BLOCK_STATUS}", "{TOTP_STATUS}"
+  };
+
+  private final String template = "👤 IGN: {NICKNAME}{NL}🌍 Current status: {SERVER}{NL}🌐 IP: {IP} {LOCATION}{NL}"
+      + "⏰ Notifications: {NOTIFY_STATUS}{NL}❌ Blocked: {BLOCK_STATUS}{NL}🔑 2FA: {TOTP_STATUS}";
+
+  private MessageTemplate compiled;
+
+  @Setup
+  public void setup() {
+    Placeholders.addPlaceholders(this.template, PLACEHOLDERS);
+    this.compiled = MessageTemplate.compile(this.template, PLACEHOLDERS);
+  }
+
+  @Benchmark
+  public String placeholdersReplace() {
+    return Placeholders.replace(this.template, "elytrium", "lobby-1", "127.0.0.1", "Moscow, Russia", "Enabled", "No", "Disabled");
+  }
+
+  @Benchmark
+  public String messageTemplateRender() {
+    return this.compiled.render("elytrium", "lobby-1", "127.0.0.1", "Moscow, Russia", "Enabled", "No", "Disabled");
+  }
+}
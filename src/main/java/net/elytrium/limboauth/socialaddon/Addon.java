@@ -34,6 +34,7 @@ import com.velocitypowered.api.proxy.ServerConnection;
 import com.velocitypowered.api.scheduler.ScheduledTask;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
+import java.net.InetAddress;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.Arrays;
@@ -46,6 +47,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import net.elytrium.commons.config.Placeholders;
 import net.elytrium.commons.kyori.serialization.Serializer;
 import net.elytrium.commons.kyori.serialization.Serializers;
@@ -55,6 +57,12 @@ import net.elytrium.limboauth.handler.AuthSessionHandler;
 import net.elytrium.limboauth.model.RegisteredPlayer;
 import net.elytrium.limboauth.socialaddon.command.ForceSocialUnlinkCommand;
 import net.elytrium.limboauth.socialaddon.command.ValidateLinkCommand;
+import net.elytrium.limboauth.socialaddon.database.LinkedPlayerFilter;
+import net.elytrium.limboauth.socialaddon.database.SchemaMigrator;
+import net.elytrium.limboauth.socialaddon.database.SocialLinkUpsert;
+import net.elytrium.limboauth.socialaddon.database.SocialPlayerCache;
+import net.elytrium.limboauth.socialaddon.database.SocialPlayerRepository;
+import net.elytrium.limboauth.socialaddon.database.SocialPlayerWriteBehind;
 import net.elytrium.limboauth.socialaddon.listener.LimboAuthListener;
 import net.elytrium.limboauth.socialaddon.listener.ReloadListener;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
@@ -63,6 +71,9 @@ import net.elytrium.limboauth.socialaddon.social.DiscordSocial;
 import net.elytrium.limboauth.socialaddon.social.TelegramSocial;
 import net.elytrium.limboauth.socialaddon.social.VKSocial;
 import net.elytrium.limboauth.socialaddon.utils.GeoIp;
+import net.elytrium.limboauth.socialaddon.utils.MessageTemplate;
+import net.elytrium.limboauth.socialaddon.utils.PrefixRouter;
+import net.elytrium.limboauth.socialaddon.utils.RegistrationThrottle;
 import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
 import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.DaoManager;
 import net.elytrium.limboauth.thirdparty.com.j256.ormlite.stmt.UpdateBuilder;
@@ -106,15 +117,32 @@ public class Addon {
 
   private final Map<String, Integer> codeMap;
   private final Map<String, TempAccount> requestedReverseMap;
-  private final Map<String, CachedRegisteredUser> cachedAccountRegistrations = new ConcurrentHashMap<>();
 
   private Dao<SocialPlayer, String> dao;
+  private SocialPlayerCache playerCache;
+  private SocialPlayerRepository repository;
+  private SocialPlayerWriteBehind writeBehind;
   private Pattern nicknamePattern;
 
   private SocialManager socialManager;
   private List<List<AbstractSocial.ButtonItem>> keyboard;
+  private MessageTemplate infoTemplate;
+  private MessageTemplate blockTemplate;
+  private MessageTemplate unblockTemplate;
+  private MessageTemplate totpEnableTemplate;
+  private MessageTemplate totpDisableTemplate;
+  private MessageTemplate notifyEnableTemplate;
+  private MessageTemplate notifyDisableTemplate;
+  private MessageTemplate kickTemplate;
+  private MessageTemplate kickOfflineTemplate;
+  private List<MessageTemplate> afterLinkageCommands;
+  private List<MessageTemplate> afterUnlinkageCommands;
   private GeoIp geoIp;
+  private RegistrationThrottle registrationThrottle;
   private ScheduledTask purgeCacheTask;
+  private ScheduledTask writeBehindTask;
+  private ScheduledTask linkedFilterTask;
+  private ScheduledTask refreshStoreTask;
 
   static {
     Objects.requireNonNull(org.apache.commons.logging.impl.LogFactoryImpl.class);
@@ -168,13 +196,25 @@ public class Addon {
       setSerializer(new Serializer(serializer));
     }
 
-    this.geoIp = Settings.IMP.MAIN.GEOIP.ENABLED ? new GeoIp(this.dataDirectory) : null;
+    if (this.geoIp != null) {
+      this.geoIp.shutdown();
+    }
+
+    this.geoIp = Settings.IMP.MAIN.GEOIP.ENABLED ? new GeoIp(this.dataDirectory, this.logger) : null;
+
+    // Kept between reloads, so reloading doesn't reset the registration limits
+    if (this.registrationThrottle == null) {
+      this.registrationThrottle = new RegistrationThrottle(Settings.IMP.MAIN.PURGE_REGISTRATION_CACHE_MILLIS);
+    }
 
     if (this.socialManager != null) {
       this.socialManager.stop();
     }
 
-    this.socialManager = new SocialManager(DiscordSocial::new, TelegramSocial::new, VKSocial::new);
+    this.socialManager = new SocialManager(this.logger,
+        (onMessageReceived, onButtonClicked) -> new DiscordSocial(onMessageReceived, onButtonClicked, this.logger),
+        (onMessageReceived, onButtonClicked) -> new TelegramSocial(onMessageReceived, onButtonClicked, this.logger),
+        (onMessageReceived, onButtonClicked) -> new VKSocial(onMessageReceived, onButtonClicked, this.dataDirectory, this.logger));
     this.socialManager.start();
 
     this.keyboard = List.of(
@@ -197,140 +237,144 @@ public class Addon {
 
     this.socialManager.registerKeyboard(this.keyboard);
 
-    this.socialManager.addMessageEvent((dbField, id, message) -> {
-      String lowercaseMessage = message.toLowerCase(Locale.ROOT);
-      if (Settings.IMP.MAIN.START_MESSAGES.contains(lowercaseMessage)) {
-        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.START_REPLY);
+    this.infoTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.INFO_MSG,
+        "{NICKNAME}", "{SERVER}", "{IP}", "{LOCATION}", "{NOTIFY_STATUS}", "{BLOCK_STATUS}", "{TOTP_STATUS}");
+    this.blockTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.BLOCK_SUCCESS, "{NICKNAME}");
+    this.unblockTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.UNBLOCK_SUCCESS, "{NICKNAME}");
+    this.totpEnableTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.TOTP_ENABLE_SUCCESS, "{NICKNAME}");
+    this.totpDisableTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.TOTP_DISABLE_SUCCESS, "{NICKNAME}");
+    this.notifyEnableTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.NOTIFY_ENABLE_SUCCESS, "{NICKNAME}");
+    this.notifyDisableTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.NOTIFY_DISABLE_SUCCESS, "{NICKNAME}");
+    this.kickTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.KICK_SUCCESS, "{NICKNAME}");
+    this.kickOfflineTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.KICK_IS_OFFLINE, "{NICKNAME}");
+    this.afterLinkageCommands = Settings.IMP.MAIN.AFTER_LINKAGE_COMMANDS.stream()
+        .map(command -> MessageTemplate.compile(command, "{NICKNAME}"))
+        .collect(Collectors.toList());
+    this.afterUnlinkageCommands = Settings.IMP.MAIN.AFTER_UNLINKAGE_COMMANDS.stream()
+        .map(command -> MessageTemplate.compile(command, "{NICKNAME}"))
+        .collect(Collectors.toList());
+
+    PrefixRouter.Builder<SocialCommand> commands = PrefixRouter.builder();
+    Settings.IMP.MAIN.START_MESSAGES.forEach(startMessage -> commands.exact(startMessage, (dbField, id, message, commandLength) ->
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.START_REPLY)));
+
+    SocialCommand registerCommand = (dbField, id, message, commandLength) -> {
+      int desiredLength = commandLength + 1;
+
+      if (message.length() <= desiredLength) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_REGISTER_CMD_USAGE);
         return;
       }
 
-      for (String socialRegisterCmd : Settings.IMP.MAIN.SOCIAL_REGISTER_CMDS) {
-        if (lowercaseMessage.startsWith(socialRegisterCmd)) {
-          int desiredLength = socialRegisterCmd.length() + 1;
-
-          if (message.length() <= desiredLength) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_REGISTER_CMD_USAGE);
-            return;
-          }
-
-          String userIndex = dbField + id;
-          CachedRegisteredUser cachedRegisteredUser = this.cachedAccountRegistrations.get(userIndex);
-          if (cachedRegisteredUser == null) {
-            this.cachedAccountRegistrations.put(userIndex, cachedRegisteredUser = new CachedRegisteredUser());
-          }
+      if (!this.registrationThrottle.tryAcquire(dbField, id, Settings.IMP.MAIN.MAX_REGISTRATION_COUNT_PER_TIME,
+          Settings.IMP.MAIN.PURGE_REGISTRATION_CACHE_MILLIS)) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_LIMIT);
+        return;
+      }
 
-          if (cachedRegisteredUser.getRegistrationAmount() >= Settings.IMP.MAIN.MAX_REGISTRATION_COUNT_PER_TIME) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_LIMIT);
-            return;
-          }
+      if (this.playerCache.queryForSocialId(dbField, id) != null) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_ALREADY);
+        return;
+      }
 
-          cachedRegisteredUser.incrementRegistrationAmount();
+      String account = message.substring(desiredLength);
+      if (!this.nicknamePattern.matcher(account).matches()) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_INCORRECT_NICKNAME);
+        return;
+      }
 
-          if (this.dao.queryForEq(dbField, id).size() != 0) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_ALREADY);
-            return;
-          }
+      String lowercaseNickname = account.toLowerCase(Locale.ROOT);
+      if (this.plugin.getPlayerDao().idExists(lowercaseNickname)) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_TAKEN_NICKNAME);
+        return;
+      }
 
-          String account = message.substring(desiredLength);
-          if (!this.nicknamePattern.matcher(account).matches()) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_INCORRECT_NICKNAME);
-            return;
-          }
+      if (!Settings.IMP.MAIN.ALLOW_PREMIUM_NAMES_REGISTRATION && this.plugin.isPremium(lowercaseNickname)) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_PREMIUM_NICKNAME);
+        return;
+      }
 
-          String lowercaseNickname = account.toLowerCase(Locale.ROOT);
-          if (this.plugin.getPlayerDao().idExists(lowercaseNickname)) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_TAKEN_NICKNAME);
-            return;
-          }
+      String newPassword = Long.toHexString(Double.doubleToLongBits(Math.random()));
 
-          if (!Settings.IMP.MAIN.ALLOW_PREMIUM_NAMES_REGISTRATION && this.plugin.isPremium(lowercaseNickname)) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.REGISTER_PREMIUM_NICKNAME);
-            return;
-          }
+      RegisteredPlayer player = new RegisteredPlayer(account, "", "").setPassword(newPassword);
+      this.plugin.getPlayerDao().create(player);
 
-          String newPassword = Long.toHexString(Double.doubleToLongBits(Math.random()));
+      this.linkSocial(lowercaseNickname, dbField, id);
+      this.socialManager.broadcastMessage(dbField, id,
+          Placeholders.replace(Settings.IMP.MAIN.STRINGS.REGISTER_SUCCESS, newPassword));
+    };
+    Settings.IMP.MAIN.SOCIAL_REGISTER_CMDS.forEach(command -> commands.prefix(command, registerCommand));
 
-          RegisteredPlayer player = new RegisteredPlayer(account, "", "").setPassword(newPassword);
-          this.plugin.getPlayerDao().create(player);
+    SocialCommand linkCommand = (dbField, id, message, commandLength) -> {
+      int desiredLength = commandLength + 1;
 
-          this.linkSocial(lowercaseNickname, dbField, id);
-          this.socialManager.broadcastMessage(dbField, id,
-              Placeholders.replace(Settings.IMP.MAIN.STRINGS.REGISTER_SUCCESS, newPassword));
-        }
+      if (message.length() <= desiredLength) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
+        return;
       }
 
-      for (String socialLinkCmd : Settings.IMP.MAIN.SOCIAL_LINK_CMDS) {
-        if (lowercaseMessage.startsWith(socialLinkCmd)) {
-          int desiredLength = socialLinkCmd.length() + 1;
-
-          if (message.length() <= desiredLength) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
-            return;
-          }
-
-          String[] args = message.substring(desiredLength).split(" ");
-          if (this.dao.queryForEq(dbField, id).size() != 0) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_ALREADY);
-            return;
-          }
-
-          String account = args[0].toLowerCase(Locale.ROOT);
-          if (!this.nicknamePattern.matcher(account).matches()) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_UNKNOWN_ACCOUNT);
-            return;
-          }
-
-          if (args.length == 1) {
-            if (Settings.IMP.MAIN.DISABLE_LINK_WITHOUT_PASSWORD) {
-              this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
-              return;
-            }
+      String[] args = message.substring(desiredLength).split(" ");
+      if (this.playerCache.queryForSocialId(dbField, id) != null) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_ALREADY);
+        return;
+      }
 
-            int code = ThreadLocalRandom.current().nextInt(Settings.IMP.MAIN.CODE_LOWER_BOUND, Settings.IMP.MAIN.CODE_UPPER_BOUND);
-            this.codeMap.put(account, code);
-            this.requestedReverseMap.put(account, new TempAccount(dbField, id));
-            this.socialManager.broadcastMessage(dbField, id, Placeholders.replace(Settings.IMP.MAIN.STRINGS.LINK_CODE, String.valueOf(code)));
-          } else {
-            if (Settings.IMP.MAIN.DISABLE_LINK_WITH_PASSWORD) {
-              this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
-              return;
-            }
+      String account = args[0].toLowerCase(Locale.ROOT);
+      if (!this.nicknamePattern.matcher(account).matches()) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_UNKNOWN_ACCOUNT);
+        return;
+      }
 
-            RegisteredPlayer registeredPlayer = this.plugin.getPlayerDao().queryForId(account);
-            if (AuthSessionHandler.checkPassword(args[1], registeredPlayer, this.plugin.getPlayerDao())) {
-              this.linkSocial(account, dbField, id);
-              this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SUCCESS);
-            } else {
-              this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_WRONG_PASSWORD);
-              return;
-            }
-          }
+      if (args.length == 1) {
+        if (Settings.IMP.MAIN.DISABLE_LINK_WITHOUT_PASSWORD) {
+          this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
+          return;
+        }
 
+        int code = ThreadLocalRandom.current().nextInt(Settings.IMP.MAIN.CODE_LOWER_BOUND, Settings.IMP.MAIN.CODE_UPPER_BOUND);
+        this.codeMap.put(account, code);
+        this.requestedReverseMap.put(account, new TempAccount(dbField, id));
+        this.socialManager.broadcastMessage(dbField, id, Placeholders.replace(Settings.IMP.MAIN.STRINGS.LINK_CODE, String.valueOf(code)));
+      } else {
+        if (Settings.IMP.MAIN.DISABLE_LINK_WITH_PASSWORD) {
+          this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SOCIAL_CMD_USAGE);
           return;
         }
+
+        RegisteredPlayer registeredPlayer = this.plugin.getPlayerDao().queryForId(account);
+        if (AuthSessionHandler.checkPassword(args[1], registeredPlayer, this.plugin.getPlayerDao())) {
+          this.linkSocial(account, dbField, id);
+          this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_SUCCESS);
+        } else {
+          this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_WRONG_PASSWORD);
+        }
       }
+    };
+    Settings.IMP.MAIN.SOCIAL_LINK_CMDS.forEach(command -> commands.prefix(command, linkCommand));
 
-      for (String forceKeyboardCmd : Settings.IMP.MAIN.FORCE_KEYBOARD_CMDS) {
-        if (lowercaseMessage.startsWith(forceKeyboardCmd)) {
-          if (this.dao.queryBuilder().where().eq(dbField, id).countOf() == 0) {
-            this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.START_REPLY);
-            return;
-          }
+    SocialCommand forceKeyboardCommand = (dbField, id, message, commandLength) -> {
+      if (this.playerCache.queryForSocialId(dbField, id) == null) {
+        this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.START_REPLY);
+        return;
+      }
 
-          this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.KEYBOARD_RESTORED, this.keyboard);
-          return;
-        }
+      this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.KEYBOARD_RESTORED, this.keyboard);
+    };
+    Settings.IMP.MAIN.FORCE_KEYBOARD_CMDS.forEach(command -> commands.prefix(command, forceKeyboardCommand));
+
+    PrefixRouter<SocialCommand> commandRouter = commands.build();
+    this.socialManager.addMessageEvent((dbField, id, message) -> {
+      PrefixRouter.Match<SocialCommand> command = commandRouter.route(message);
+      if (command != null) {
+        command.getValue().execute(dbField, id, message, command.getLength());
       }
     });
 
     this.socialManager.addButtonEvent(INFO_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
-
-      SocialPlayer player = socialPlayerList.get(0);
       Optional<Player> proxyPlayer = this.server.getPlayer(player.getLowercaseNickname());
       String server;
       String ip;
@@ -346,15 +390,16 @@ public class Addon {
           server = Settings.IMP.MAIN.STRINGS.STATUS_OFFLINE;
         }
 
-        ip = player1.getRemoteAddress().getAddress().getHostAddress();
-        location = Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(ip)).orElse("");
+        InetAddress address = player1.getRemoteAddress().getAddress();
+        ip = address.getHostAddress();
+        location = Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(address)).orElse("");
       } else {
         server = Settings.IMP.MAIN.STRINGS.STATUS_OFFLINE;
         ip = Settings.IMP.MAIN.STRINGS.STATUS_OFFLINE;
         location = "";
       }
 
-      this.socialManager.broadcastMessage(dbField, id, Placeholders.replace(Settings.IMP.MAIN.STRINGS.INFO_MSG,
+      this.socialManager.broadcastMessage(dbField, id, this.infoTemplate.render(
               player.getLowercaseNickname(),
               server,
               ip,
@@ -367,18 +412,15 @@ public class Addon {
     });
 
     this.socialManager.addButtonEvent(BLOCK_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
 
-      SocialPlayer player = socialPlayerList.get(0);
-
       if (player.isBlocked()) {
         player.setBlocked(false);
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.UNBLOCK_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.unblockTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       } else {
         player.setBlocked(true);
@@ -389,95 +431,83 @@ public class Addon {
             .ifPresent(e -> e.disconnect(Addon.getSerializer().deserialize(Settings.IMP.MAIN.STRINGS.KICK_GAME_MESSAGE)));
 
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.BLOCK_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.blockTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       }
 
-      this.dao.update(player);
+      // The block is written right away instead of waiting for the next flush, the other pending toggles are written with it
+      this.writeBehind.schedule(player);
+      this.writeBehind.flush();
     });
 
     this.socialManager.addButtonEvent(TOTP_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
 
-      SocialPlayer player = socialPlayerList.get(0);
-
       if (player.isTotpEnabled()) {
         player.setTotpEnabled(false);
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.TOTP_DISABLE_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.totpDisableTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       } else {
         player.setTotpEnabled(true);
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.TOTP_ENABLE_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.totpEnableTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       }
 
-      this.dao.update(player);
+      this.writeBehind.schedule(player);
     });
 
     this.socialManager.addButtonEvent(NOTIFY_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
 
-      SocialPlayer player = socialPlayerList.get(0);
-
       if (player.isNotifyEnabled()) {
         player.setNotifyEnabled(false);
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.NOTIFY_DISABLE_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.notifyDisableTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       } else {
         player.setNotifyEnabled(true);
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.NOTIFY_ENABLE_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.notifyEnableTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       }
 
-      this.dao.update(player);
+      this.writeBehind.schedule(player);
     });
 
     this.socialManager.addButtonEvent(KICK_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
-
-      SocialPlayer player = socialPlayerList.get(0);
       Optional<Player> proxyPlayer = this.server.getPlayer(player.getLowercaseNickname());
       this.plugin.removePlayerFromCache(player.getLowercaseNickname());
 
       if (proxyPlayer.isPresent()) {
         proxyPlayer.get().disconnect(Addon.getSerializer().deserialize(Settings.IMP.MAIN.STRINGS.KICK_GAME_MESSAGE));
         this.socialManager.broadcastMessage(dbField, id,
-            Placeholders.replace(Settings.IMP.MAIN.STRINGS.KICK_SUCCESS, player.getLowercaseNickname()), this.keyboard
+            this.kickTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       } else {
         this.socialManager.broadcastMessage(dbField, id,
-            Settings.IMP.MAIN.STRINGS.KICK_IS_OFFLINE.replace("{NICKNAME}", player.getLowercaseNickname()), this.keyboard
+            this.kickOfflineTemplate.render(player.getLowercaseNickname()), this.keyboard
         );
       }
-
-      this.dao.update(player);
     });
 
     this.socialManager.addButtonEvent(RESTORE_BTN, (dbField, id) -> {
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
 
-      SocialPlayer player = socialPlayerList.get(0);
-
       if (Settings.IMP.MAIN.PROHIBIT_PREMIUM_RESTORE
           && this.plugin.isPremiumInternal(player.getLowercaseNickname()).getState() != LimboAuth.PremiumState.CRACKED) {
         this.socialManager.broadcastMessage(dbField, id,
@@ -514,14 +544,11 @@ public class Addon {
         this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.UNLINK_DISABLED, this.keyboard);
         return;
       }
-      List<SocialPlayer> socialPlayerList = this.dao.queryForEq(dbField, id);
-
-      if (socialPlayerList.size() == 0) {
+      SocialPlayer player = this.playerCache.queryForSocialId(dbField, id);
+      if (player == null) {
         return;
       }
 
-      SocialPlayer player = socialPlayerList.get(0);
-
       if (player.isBlocked()) {
         this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.UNLINK_BLOCK_CONFLICT, this.keyboard);
         return;
@@ -532,23 +559,17 @@ public class Addon {
         return;
       }
 
-      Long playerId = SocialPlayer.DatabaseField.valueOf(dbField).getIdFor(player);
-      SocialPlayer.DatabaseField.valueOf(dbField).setIdFor(player, null);
       boolean allUnlinked = Arrays.stream(SocialPlayer.DatabaseField.values())
-          .noneMatch(v -> v.getIdFor(player) != null);
-      SocialPlayer.DatabaseField.valueOf(dbField).setIdFor(player, playerId);
+          .noneMatch(v -> v != dbField && v.getIdFor(player) != null);
 
       if (Settings.IMP.MAIN.UNLINK_BTN_ALL || allUnlinked) {
         this.socialManager.unregisterHook(player);
-        this.dao.delete(player);
+        this.playerCache.delete(player);
 
-        Settings.IMP.MAIN.AFTER_UNLINKAGE_COMMANDS.forEach(command ->
-            this.server.getCommandManager().executeAsync(p -> Tristate.TRUE, command.replace("{NICKNAME}", player.getLowercaseNickname())));
+        this.afterUnlinkageCommands.forEach(command ->
+            this.server.getCommandManager().executeAsync(p -> Tristate.TRUE, command.render(player.getLowercaseNickname())));
       } else {
-        UpdateBuilder<SocialPlayer, String> updateBuilder = this.dao.updateBuilder();
-        updateBuilder.where().eq(SocialPlayer.LOWERCASE_NICKNAME_FIELD, player.getLowercaseNickname());
-        updateBuilder.updateColumnValue(dbField, null);
-        updateBuilder.update();
+        this.playerCache.updateSocialId(player.getLowercaseNickname(), dbField, null);
 
         this.socialManager.unregisterHook(dbField, player);
       }
@@ -568,10 +589,39 @@ public class Addon {
     this.dao = DaoManager.createDao(source, SocialPlayer.class);
 
     this.plugin.migrateDb(this.dao);
+    new SchemaMigrator(source, this.dao, this.logger).migrate();
+    if (this.writeBehind != null) {
+      this.writeBehind.flush();
+    }
+
+    SocialPlayerCache playerCache = new SocialPlayerCache(this.dao,
+        Settings.IMP.MAIN.CACHE.PLAYER_CACHE_TTL, Settings.IMP.MAIN.CACHE.PLAYER_CACHE_SIZE, Settings.IMP.MAIN.CACHE.WARM_UP,
+        Settings.IMP.MAIN.CACHE.LINKED_FILTER ? new LinkedPlayerFilter(Settings.IMP.MAIN.CACHE.LINKED_FILTER_FPP) : null);
+    this.playerCache = playerCache;
+    this.server.getScheduler().buildTask(this, () -> {
+      try {
+        playerCache.warmUp(this.logger);
+      } catch (SQLException e) {
+        this.logger.error("Unable to load the social players, lookups will be sent to the database", e);
+      }
+    }).schedule();
+    SocialPlayerWriteBehind writeBehind = new SocialPlayerWriteBehind(this.playerCache, this.logger);
+    if (this.writeBehind != null) {
+      writeBehind.takeOver(this.writeBehind);
+    }
+
+    this.writeBehind = writeBehind;
+
+    if (this.repository != null) {
+      this.repository.shutdown();
+    }
+
+    this.repository = new SocialPlayerRepository(this.playerCache,
+        Settings.IMP.MAIN.DATABASE.THREADS, Settings.IMP.MAIN.DATABASE.QUEUE_SIZE);
 
     this.nicknamePattern = Pattern.compile(net.elytrium.limboauth.Settings.IMP.MAIN.ALLOWED_NICKNAME_REGEX);
 
-    this.server.getEventManager().register(this, new LimboAuthListener(this, this.plugin, this.dao, this.socialManager,
+    this.server.getEventManager().register(this, new LimboAuthListener(this, this.plugin, this.repository, this.socialManager,
         this.keyboard, this.geoIp
     ));
     this.server.getEventManager().register(this, new ReloadListener(this));
@@ -581,11 +631,62 @@ public class Addon {
     }
 
     this.purgeCacheTask = this.server.getScheduler()
-        .buildTask(this, () -> this.checkCache(this.cachedAccountRegistrations, Settings.IMP.MAIN.PURGE_REGISTRATION_CACHE_MILLIS))
+        .buildTask(this, () -> {
+          this.registrationThrottle.purge();
+          this.playerCache.purge();
+        })
         .delay(net.elytrium.limboauth.Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
         .repeat(net.elytrium.limboauth.Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
         .schedule();
 
+    if (this.writeBehindTask != null) {
+      this.writeBehindTask.cancel();
+    }
+
+    this.writeBehindTask = this.server.getScheduler()
+        .buildTask(this, this.writeBehind::flush)
+        .delay(Settings.IMP.MAIN.DATABASE.WRITE_BEHIND_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+        .repeat(Settings.IMP.MAIN.DATABASE.WRITE_BEHIND_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+        .schedule();
+
+    if (this.linkedFilterTask != null) {
+      this.linkedFilterTask.cancel();
+      this.linkedFilterTask = null;
+    }
+
+    if (Settings.IMP.MAIN.CACHE.LINKED_FILTER) {
+      this.linkedFilterTask = this.server.getScheduler()
+          .buildTask(this, () -> {
+            try {
+              playerCache.rebuildLinkedFilter();
+            } catch (SQLException e) {
+              this.logger.error("Unable to rebuild the linked players filter", e);
+            }
+          })
+          .delay(Settings.IMP.MAIN.CACHE.LINKED_FILTER_REBUILD_MILLIS, TimeUnit.MILLISECONDS)
+          .repeat(Settings.IMP.MAIN.CACHE.LINKED_FILTER_REBUILD_MILLIS, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+
+    if (this.refreshStoreTask != null) {
+      this.refreshStoreTask.cancel();
+      this.refreshStoreTask = null;
+    }
+
+    if (Settings.IMP.MAIN.CACHE.WARM_UP) {
+      this.refreshStoreTask = this.server.getScheduler()
+          .buildTask(this, () -> {
+            try {
+              playerCache.refreshStore(this.logger);
+            } catch (SQLException e) {
+              this.logger.error("Unable to refresh the social players", e);
+            }
+          })
+          .delay(Settings.IMP.MAIN.CACHE.WARM_UP_REFRESH_MILLIS, TimeUnit.MILLISECONDS)
+          .repeat(Settings.IMP.MAIN.CACHE.WARM_UP_REFRESH_MILLIS, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+
     CommandManager commandManager = this.server.getCommandManager();
     commandManager.unregister(Settings.IMP.MAIN.LINKAGE_MAIN_CMD);
     commandManager.unregister(Settings.IMP.MAIN.FORCE_UNLINK_MAIN_CMD);
@@ -602,41 +703,36 @@ public class Addon {
     );
   }
 
-  private void checkCache(Map<?, ? extends CachedUser> userMap, long time) {
-    userMap.entrySet().stream()
-        .filter(userEntry -> userEntry.getValue().getCheckTime() + time <= System.currentTimeMillis())
-        .map(Map.Entry::getKey)
-        .forEach(userMap::remove);
+  public void onShutdown() {
+    if (this.writeBehind != null) {
+      this.writeBehind.flush();
+    }
+
+    if (this.repository != null) {
+      this.repository.shutdown();
+    }
   }
 
   public void unregisterPlayer(String nickname) {
     try {
-      SocialPlayer player = this.dao.queryForId(nickname.toLowerCase(Locale.ROOT));
+      SocialPlayer player = this.playerCache.queryForId(nickname.toLowerCase(Locale.ROOT));
       if (player != null) {
         this.socialManager.unregisterHook(player);
-        this.dao.delete(player);
+        this.playerCache.delete(player);
       }
     } catch (SQLException e) {
       throw new IllegalStateException(e);
     }
   }
 
-  public void linkSocial(String lowercaseNickname, String dbField, Long id) throws SQLException {
-    SocialPlayer socialPlayer = this.dao.queryForId(lowercaseNickname);
-    if (socialPlayer == null) {
-      Settings.IMP.MAIN.AFTER_LINKAGE_COMMANDS.forEach(command ->
-          this.server.getCommandManager().executeAsync(p -> Tristate.TRUE, command.replace("{NICKNAME}", lowercaseNickname)));
-
-      this.dao.create(new SocialPlayer(lowercaseNickname));
-    } else if (!Settings.IMP.MAIN.ALLOW_ACCOUNT_RELINK && SocialPlayer.DatabaseField.valueOf(dbField).getIdFor(socialPlayer) != null) {
+  public void linkSocial(String lowercaseNickname, SocialPlayer.DatabaseField dbField, Long id) throws SQLException {
+    SocialLinkUpsert.Result result = this.playerCache.linkSocialId(lowercaseNickname, dbField, id, Settings.IMP.MAIN.ALLOW_ACCOUNT_RELINK);
+    if (result == SocialLinkUpsert.Result.ALREADY_LINKED) {
       this.socialManager.broadcastMessage(dbField, id, Settings.IMP.MAIN.STRINGS.LINK_ALREADY);
-      return;
+    } else if (result == SocialLinkUpsert.Result.CREATED) {
+      this.afterLinkageCommands.forEach(command ->
+          this.server.getCommandManager().executeAsync(p -> Tristate.TRUE, command.render(lowercaseNickname)));
     }
-
-    UpdateBuilder<SocialPlayer, String> updateBuilder = this.dao.updateBuilder();
-    updateBuilder.where().eq(SocialPlayer.LOWERCASE_NICKNAME_FIELD, lowercaseNickname);
-    updateBuilder.updateColumnValue(dbField, id);
-    updateBuilder.update();
   }
 
   public Integer getCode(String nickname) {
@@ -666,15 +762,15 @@ public class Addon {
 
   public static class TempAccount {
 
-    private final String dbField;
+    private final SocialPlayer.DatabaseField dbField;
     private final long id;
 
-    public TempAccount(String dbField, long id) {
+    public TempAccount(SocialPlayer.DatabaseField dbField, long id) {
       this.dbField = dbField;
       this.id = id;
     }
 
-    public String getDbField() {
+    public SocialPlayer.DatabaseField getDbField() {
       return this.dbField;
     }
 
@@ -684,26 +780,9 @@ public class Addon {
 
   }
 
-  private static class CachedUser {
-
-    private final long checkTime = System.currentTimeMillis();
-
-    public long getCheckTime() {
-      return this.checkTime;
-    }
-  }
-
-  private static class CachedRegisteredUser extends CachedUser {
-
-    private int registrationAmount;
+  private interface SocialCommand {
 
-    public int getRegistrationAmount() {
-      return this.registrationAmount;
-    }
-
-    public void incrementRegistrationAmount() {
-      this.registrationAmount++;
-    }
+    void execute(SocialPlayer.DatabaseField dbField, Long id, String message, int commandLength) throws Exception;
   }
 
   private static void setSerializer(Serializer serializer) {
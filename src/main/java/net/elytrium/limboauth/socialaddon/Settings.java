@@ -17,6 +17,7 @@
 
 package net.elytrium.limboauth.socialaddon;
 
+import com.maxmind.db.Reader;
 import java.util.List;
 import net.dv8tion.jda.api.entities.Activity;
 import net.elytrium.commons.config.YamlConfig;
@@ -83,6 +84,12 @@ public class Settings extends YamlConfig {
     @Comment("Allow linking social to the player, who already has linked this type of social")
     public boolean ALLOW_ACCOUNT_RELINK = true;
 
+    @Comment({
+        "Should the indexes on the social id columns be unique",
+        "Applied only once, when the indexes are created by the schema migration"
+    })
+    public boolean UNIQUE_SOCIAL_ID_INDEXES = false;
+
     public List<String> AFTER_LINKAGE_COMMANDS = List.of("alert {NICKNAME} has linked a social account");
     public List<String> AFTER_UNLINKAGE_COMMANDS = List.of();
     public List<String> START_MESSAGES = List.of("/start", "Начать");
@@ -112,12 +119,109 @@ public class Settings extends YamlConfig {
     @Comment("How many accounts can register the player per time (per purge-registration-cache-millis)")
     public int MAX_REGISTRATION_COUNT_PER_TIME = 3;
 
+    @Create
+    public MAIN.CACHE CACHE;
+
+    @Comment("Social players are cached in memory to reduce the amount of database queries on login")
+    public static class CACHE {
+      @Comment("How long in milliseconds the player should be kept in the cache")
+      public long PLAYER_CACHE_TTL = 300000;
+      @Comment("How many players can be kept in the cache at once")
+      public int PLAYER_CACHE_SIZE = 10000;
+      @Comment({
+          "Should the whole social table be loaded into memory in the background on startup",
+          "Uses a compact representation of the rows, lookups are sent to the database until the loading is finished",
+          "Rows changed by another proxy, LimboAuth or by hand are noticed only after the next refresh (warm-up-refresh-millis)"
+      })
+      public boolean WARM_UP = false;
+      @Comment("How often in milliseconds the loaded table should be refreshed from the database")
+      public long WARM_UP_REFRESH_MILLIS = 600000;
+      @Comment({
+          "Should the nicknames of the linked players be kept in a bloom filter, so unlinked players don't query the database",
+          "Players linked from another proxy sharing the same database are noticed only after the next rebuild"
+      })
+      public boolean LINKED_FILTER = true;
+      @Comment("Probability that an unlinked player is mistaken for linked and queried from the database")
+      public double LINKED_FILTER_FPP = 0.01;
+      @Comment("How often in milliseconds the bloom filter should be rebuilt from the database")
+      public long LINKED_FILTER_REBUILD_MILLIS = 600000;
+    }
+
+    @Create
+    public MAIN.DATABASE DATABASE;
+
+    @Comment("Database queries are executed off the proxy event threads")
+    public static class DATABASE {
+      @Comment("How many threads should execute database queries")
+      public int THREADS = 4;
+      @Comment("How many queries can wait for a free thread, the queries over this limit fail instead of blocking the proxy threads")
+      public int QUEUE_SIZE = 1024;
+      @Comment({
+          "How often in milliseconds the 2FA and notification toggles should be written to the database",
+          "Repeated toggles within this interval are merged into a single update, blocking is always written immediately"
+      })
+      public long WRITE_BEHIND_DELAY_MILLIS = 1000;
+    }
+
+    @Create
+    public MAIN.WORKERS WORKERS;
+
+    @Comment("Messages and button clicks from the socials are handled off the bot threads")
+    public static class WORKERS {
+      @Comment("How many threads should handle the social messages")
+      public int THREADS = 4;
+      @Comment("Messages of the same user are handled in order, users are spread over this amount of queues")
+      public int STRIPES = 64;
+    }
+
+    @Create
+    public MAIN.OUTBOUND OUTBOUND;
+
+    @Comment("Messages to the socials are queued and sent with respect to the platform rate limits")
+    public static class OUTBOUND {
+      @Comment("How many messages can wait in the queue of each social, new messages are dropped when the queue is full")
+      public int QUEUE_CAPACITY = 1000;
+      @Comment("How many times a message should be resent after the platform responded with a rate limit error")
+      public int MAX_RETRIES = 3;
+      @Comment("How many messages to VK and Telegram can be sent at the same time")
+      public int SENDER_THREADS = 4;
+    }
+
     @Create
     public MAIN.VK VK;
 
     public static class VK {
       public boolean ENABLED = false;
       public String TOKEN = "1234567890";
+      @Comment("VK allows up to 20 requests per second for the community tokens")
+      public double MESSAGES_PER_SECOND = 20;
+      @Comment({
+          "How many queued messages may be sent with a single execute request (1 - 25)",
+          "Messages with the same text and keyboard are sent as one messages.send call to several users"
+      })
+      public int BATCH_SIZE = 25;
+      @Comment("The longest delay in milliseconds between the long poll reconnection attempts, the delay doubles after each failure")
+      public long LONG_POLL_MAX_BACKOFF_MILLIS = 60000;
+      @Comment("A warning is logged when the received messages are older than this amount of milliseconds")
+      public long LONG_POLL_LAG_WARN_MILLIS = 10000;
+
+      @Create
+      public VK.HTTP HTTP;
+
+      @Comment("The long poll and the API requests use separate connection pools, so a hanging long poll doesn't delay the messages")
+      public static class HTTP {
+        @Comment("Keep-alive connections for the API requests, the connections are opened on startup")
+        public int API_CONNECTIONS = 4;
+        public int API_SOCKET_TIMEOUT_MILLIS = 10000;
+        public int LONG_POLL_CONNECTIONS = 1;
+        @Comment("Should be longer than the long poll wait time (25 seconds)")
+        public int LONG_POLL_SOCKET_TIMEOUT_MILLIS = 35000;
+        public int CONNECT_TIMEOUT_MILLIS = 5000;
+        @Comment("How long a request waits for a free pooled connection")
+        public int CONNECTION_REQUEST_TIMEOUT_MILLIS = 5000;
+        @Comment("Idle connections are closed after this amount of milliseconds")
+        public long KEEP_ALIVE_MILLIS = 60000;
+      }
     }
 
     @Create
@@ -126,6 +230,8 @@ public class Settings extends YamlConfig {
     public static class DISCORD {
       public boolean ENABLED = false;
       public String TOKEN = "1234567890";
+      @Comment("Discord allows up to 50 requests per second globally, opening a private channel may take an extra request")
+      public double MESSAGES_PER_SECOND = 25;
 
       @Comment({
           "Available: ",
@@ -161,7 +267,16 @@ public class Settings extends YamlConfig {
           "Requires SERVER MEMBERS INTENT to be enabled in the bot settings on the Discord Developer Portal"
       })
       public boolean GUILD_MEMBER_CACHE_ENABLED = false;
+      @Comment({
+          "How long in milliseconds the required-roles check result should be kept in memory",
+          "With guild-member-cache-enabled the result is also dropped when the member roles change"
+      })
+      public long REQUIRED_ROLES_CACHE_TTL = 300000;
+      @Comment("How many required-roles check results can be kept in memory, the least recently used ones are removed first")
+      public int REQUIRED_ROLES_CACHE_SIZE = 10000;
       public String NO_ROLES_MESSAGE = "You don't have permission to use commands";
+      @Comment("How many private channels should be kept in memory, a message to a user without a cached channel takes an extra request")
+      public int PRIVATE_CHANNEL_CACHE_SIZE = 10000;
     }
 
     @Create
@@ -170,6 +285,30 @@ public class Settings extends YamlConfig {
     public static class TELEGRAM {
       public boolean ENABLED = false;
       public String TOKEN = "1234567890";
+      @Comment("Telegram allows up to 30 messages per second")
+      public double MESSAGES_PER_SECOND = 30;
+
+      @Create
+      public TELEGRAM.WEBHOOK WEBHOOK;
+
+      @Comment({
+          "Telegram can push the updates to the addon instead of being polled for them",
+          "Telegram sends the updates only over HTTPS, so the listener should be put behind a reverse proxy terminating TLS"
+      })
+      public static class WEBHOOK {
+        public boolean ENABLED = false;
+        @Comment("Public URL of the reverse proxy, the secret is appended to it as the last path segment")
+        public String URL = "https://example.com/telegram";
+        public String BIND_ADDRESS = "127.0.0.1";
+        public int PORT = 8443;
+        @Comment({
+            "1-256 A-Z, a-z, 0-9, _ and - characters",
+            "Both the request path and the X-Telegram-Bot-Api-Secret-Token header should contain it"
+        })
+        public String SECRET = "";
+        @Comment("How many threads should receive the updates")
+        public int THREADS = 2;
+      }
     }
 
     @Create
@@ -198,7 +337,27 @@ public class Settings extends YamlConfig {
           "Default value: 14 days"
       })
       public long UPDATE_INTERVAL = 1209600000L;
+      @Comment({
+          "How often the database age is checked while the proxy is running, in milliseconds",
+          "The failed downloads are retried sooner, starting from 1 minute and doubling up to this interval"
+      })
+      public long UPDATE_CHECK_INTERVAL = 3600000L;
       public String DEFAULT_VALUE = "Unknown";
+      @Comment({
+          "Available values: MEMORY_MAPPED, MEMORY",
+          "MEMORY_MAPPED reads the database file through the OS page cache, MEMORY loads the whole file into the heap"
+      })
+      public Reader.FileMode FILE_MODE = Reader.FileMode.MEMORY_MAPPED;
+      @Comment("How many decoded database records are cached by the reader, 0 to disable")
+      public int READER_CACHE_SIZE = 16384;
+      @Comment("How many formatted locations are cached, per address family")
+      public int CACHE_SIZE = 4096;
+      @Comment({
+          "Addresses with the same prefix share the cached location",
+          "Use 32 and 64 (the largest supported IPv6 prefix) to cache the locations per address"
+      })
+      public int CACHE_IPV4_PREFIX = 24;
+      public int CACHE_IPV6_PREFIX = 48;
 
       @Comment("It is not necessary to change {LICENSE_KEY}")
       @Placeholders({"{LICENSE_KEY}"})
@@ -206,6 +365,19 @@ public class Settings extends YamlConfig {
 
       @Placeholders({"{LICENSE_KEY}"})
       public String MMDB_COUNTRY_DOWNLOAD = "https://download.maxmind.com/app/geoip_download?edition_id=GeoLite2-Country&license_key={LICENSE_KEY}&suffix=tar.gz";
+
+      @Comment({
+          "URLs of the .sha256 files published next to the archives, {LICENSE_KEY} is substituted as in the download URLs",
+          "The downloaded archive is checked against the hash from this file, leave empty to skip the check"
+      })
+      @Placeholders({"{LICENSE_KEY}"})
+      public String MMDB_CITY_SHA256 = "https://download.maxmind.com/app/geoip_download?edition_id=GeoLite2-City&license_key={LICENSE_KEY}&suffix=tar.gz.sha256";
+
+      @Placeholders({"{LICENSE_KEY}"})
+      public String MMDB_COUNTRY_SHA256 = "https://download.maxmind.com/app/geoip_download?edition_id=GeoLite2-Country&license_key={LICENSE_KEY}&suffix=tar.gz.sha256";
+
+      @Comment("Connect and read timeout of the database download, in milliseconds")
+      public int DOWNLOAD_TIMEOUT_MILLIS = 30000;
     }
 
     @Create
@@ -17,29 +17,43 @@
 
 package net.elytrium.limboauth.socialaddon;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
 import net.elytrium.limboauth.socialaddon.social.AbstractSocial;
 import net.elytrium.limboauth.socialaddon.social.SocialButtonListenerAdapter;
 import net.elytrium.limboauth.socialaddon.social.SocialInitializationException;
 import net.elytrium.limboauth.socialaddon.social.SocialMessageListenerAdapter;
+import net.elytrium.limboauth.socialaddon.utils.StripedSerialExecutor;
+import org.slf4j.Logger;
 
 public class SocialManager {
 
-  private final LinkedList<AbstractSocial> socialList;
+  private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+  private final List<AbstractSocial> socialList;
+  private final AbstractSocial[] socialByField = new AbstractSocial[SocialPlayer.DatabaseField.values().length];
   private final LinkedList<SocialMessageListenerAdapter> messageEvents = new LinkedList<>();
   private final HashMap<String, SocialButtonListenerAdapter> buttonEvents = new HashMap<>();
   private final HashMap<String, String> buttonIdMap = new HashMap<>();
+  private final StripedSerialExecutor executor = new StripedSerialExecutor("LimboAuth-SocialAddon-Worker",
+      Settings.IMP.MAIN.WORKERS.THREADS, Settings.IMP.MAIN.WORKERS.STRIPES);
+  private final Logger logger;
 
-  public SocialManager(AbstractSocial.Constructor... socialList) {
-    this.socialList = new LinkedList<>();
+  public SocialManager(Logger logger, AbstractSocial.Constructor... socialList) {
+    this.logger = logger;
+    this.socialList = new ArrayList<>(socialList.length);
     for (AbstractSocial.Constructor function : socialList) {
       try {
         AbstractSocial social = function.newInstance(this::onMessageReceived, this::onButtonClicked);
         if (social.isEnabled()) {
           this.socialList.add(social);
+          this.socialByField[social.getDbField().ordinal()] = social;
         }
       } catch (SocialInitializationException e) {
         e.printStackTrace(); // printStackTrace is necessary there
@@ -47,10 +61,18 @@ public class SocialManager {
     }
   }
 
-  private void onMessageReceived(String dbField, Long id, String message) {
+  // Called from the social SDK threads, which may still deliver the events while the manager is stopping
+  private void onMessageReceived(SocialPlayer.DatabaseField dbField, Long id, String message) {
+    if (!this.executor.execute(this.getStripeKey(dbField, id), () -> this.handleMessage(dbField, id, message))) {
+      this.logger.debug("Ignoring a message from {} {}, the social manager is stopped", dbField, id);
+    }
+  }
+
+  private void handleMessage(SocialPlayer.DatabaseField dbField, Long id, String message) {
     String buttonId = this.buttonIdMap.get(message);
     if (buttonId != null) {
-      this.onButtonClicked(dbField, id, buttonId);
+      this.handleButton(dbField, id, buttonId);
+      return;
     }
 
     this.messageEvents.forEach(event -> {
@@ -65,7 +87,17 @@ public class SocialManager {
     });
   }
 
-  private void onButtonClicked(String dbField, Long id, String buttonId) {
+  private void onButtonClicked(SocialPlayer.DatabaseField dbField, Long id, String buttonId) {
+    if (!this.executor.execute(this.getStripeKey(dbField, id), () -> this.handleButton(dbField, id, buttonId))) {
+      this.logger.debug("Ignoring a button click from {} {}, the social manager is stopped", dbField, id);
+    }
+  }
+
+  private int getStripeKey(SocialPlayer.DatabaseField dbField, Long id) {
+    return dbField.ordinal() * 31 + Long.hashCode(id);
+  }
+
+  private void handleButton(SocialPlayer.DatabaseField dbField, Long id, String buttonId) {
     SocialButtonListenerAdapter buttonListenerAdapter = this.buttonEvents.get(buttonId);
     if (buttonListenerAdapter != null) {
       try {
@@ -101,27 +133,50 @@ public class SocialManager {
     }
   }
 
+  // No events arrive after the socials stop receiving, the received ones are handled and their replies are delivered before the senders are closed
   public void stop() {
-    this.socialList.forEach(AbstractSocial::stop);
+    for (AbstractSocial social : this.socialList) {
+      social.stopReceiving();
+    }
+
+    try {
+      if (!this.executor.shutdown(STOP_TIMEOUT_MILLIS)) {
+        this.logger.warn("Social events were not handled in {} ms, the remaining ones are dropped", STOP_TIMEOUT_MILLIS);
+      }
+
+      for (AbstractSocial social : this.socialList) {
+        social.getOutboundQueue().shutdown(STOP_TIMEOUT_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (AbstractSocial social : this.socialList) {
+      social.getOutboundQueue().shutdown();
+      social.stop();
+    }
   }
 
   public void unregisterHook(SocialPlayer player) {
-    this.socialList.stream()
-        .filter(e -> e.canSend(player))
-        .forEach(e -> e.onPlayerRemoved(player));
+    for (AbstractSocial social : this.socialList) {
+      if (social.canSend(player)) {
+        social.onPlayerRemoved(player);
+      }
+    }
   }
 
-  public void unregisterHook(String dbField, SocialPlayer player) {
-    this.socialList.stream()
-        .filter(e -> e.canSend(player))
-        .filter(e -> e.getDbField().equals(dbField))
-        .forEach(e -> e.onPlayerRemoved(player));
+  public void unregisterHook(SocialPlayer.DatabaseField dbField, SocialPlayer player) {
+    AbstractSocial social = this.socialByField[dbField.ordinal()];
+    if (social != null && social.canSend(player)) {
+      social.onPlayerRemoved(player);
+    }
   }
 
-  public void registerHook(String dbField, Long id) {
-    this.socialList.stream()
-        .filter(e -> e.getDbField().equals(dbField))
-        .forEach(e -> e.onPlayerAdded(id));
+  public void registerHook(SocialPlayer.DatabaseField dbField, Long id) {
+    AbstractSocial social = this.socialByField[dbField.ordinal()];
+    if (social != null) {
+      social.onPlayerAdded(id);
+    }
   }
 
   public void registerKeyboard(List<List<AbstractSocial.ButtonItem>> keyboard) {
@@ -130,44 +185,54 @@ public class SocialManager {
         this.buttonIdMap.put(item.getValue(), item.getId());
       }
     }
+
+    for (AbstractSocial social : this.socialList) {
+      social.registerKeyboard(keyboard);
+    }
   }
 
   public void registerButton(AbstractSocial.ButtonItem item) {
     this.buttonIdMap.put(item.getValue(), item.getId());
   }
 
-  public void broadcastMessage(SocialPlayer player, String message, List<List<AbstractSocial.ButtonItem>> item) {
-    this.broadcastMessage(player, message, item, AbstractSocial.ButtonVisibility.DEFAULT);
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer player, String message, List<List<AbstractSocial.ButtonItem>> item) {
+    return this.broadcastMessage(player, message, item, AbstractSocial.ButtonVisibility.DEFAULT);
   }
 
-  public void broadcastMessage(SocialPlayer player, String message,
-                               List<List<AbstractSocial.ButtonItem>> item, AbstractSocial.ButtonVisibility visibility) {
-    this.socialList.stream()
-        .filter(e -> e.canSend(player))
-        .forEach(e -> e.sendMessage(player, message, item, visibility));
+  // Messages to the different socials are sent in parallel, the future completes when every social has delivered its message
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer player, String message,
+                                                  List<List<AbstractSocial.ButtonItem>> item, AbstractSocial.ButtonVisibility visibility) {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[this.socialList.size()];
+    int count = 0;
+    for (AbstractSocial social : this.socialList) {
+      if (social.canSend(player)) {
+        futures[count++] = social.sendMessage(player, message, item, visibility);
+      }
+    }
+
+    return CompletableFuture.allOf(count == futures.length ? futures : Arrays.copyOf(futures, count));
   }
 
-  public void broadcastMessage(SocialPlayer player, String message) {
-    this.socialList.stream()
-        .filter(e -> e.canSend(player))
-        .forEach(e -> e.sendMessage(player, message));
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer player, String message) {
+    return this.broadcastMessage(player, message, Collections.emptyList(), AbstractSocial.ButtonVisibility.DEFAULT);
   }
 
-  public void broadcastMessage(String dbField, Long id, String message, List<List<AbstractSocial.ButtonItem>> item) {
-    this.broadcastMessage(dbField, id, message, item, AbstractSocial.ButtonVisibility.DEFAULT);
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer.DatabaseField dbField, Long id, String message,
+                                                  List<List<AbstractSocial.ButtonItem>> item) {
+    return this.broadcastMessage(dbField, id, message, item, AbstractSocial.ButtonVisibility.DEFAULT);
   }
 
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer.DatabaseField dbField, Long id, String message,
+                                                  List<List<AbstractSocial.ButtonItem>> item, AbstractSocial.ButtonVisibility visibility) {
+    AbstractSocial social = this.socialByField[dbField.ordinal()];
+    if (social == null) {
+      return CompletableFuture.completedFuture(null);
+    }
 
-  public void broadcastMessage(String dbField, Long id, String message,
-                               List<List<AbstractSocial.ButtonItem>> item, AbstractSocial.ButtonVisibility visibility) {
-    this.socialList.stream()
-        .filter(e -> e.getDbField().equals(dbField))
-        .forEach(e -> e.sendMessage(id, message, item, visibility));
+    return social.sendMessage(id, message, item, visibility);
   }
 
-  public void broadcastMessage(String dbField, Long id, String message) {
-    this.socialList.stream()
-        .filter(e -> e.getDbField().equals(dbField))
-        .forEach(e -> e.sendMessage(id, message));
+  public CompletableFuture<Void> broadcastMessage(SocialPlayer.DatabaseField dbField, Long id, String message) {
+    return this.broadcastMessage(dbField, id, message, Collections.emptyList(), AbstractSocial.ButtonVisibility.DEFAULT);
   }
 }
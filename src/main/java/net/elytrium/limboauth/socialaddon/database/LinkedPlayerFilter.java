@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+
+public class LinkedPlayerFilter {
+
+  private static final long MIN_EXPECTED_INSERTIONS = 1024;
+
+  private final double falsePositiveProbability;
+  private volatile BloomFilter<CharSequence> filter;
+  private volatile BloomFilter<CharSequence> rebuilding;
+
+  public LinkedPlayerFilter(double falsePositiveProbability) {
+    this.falsePositiveProbability = falsePositiveProbability;
+  }
+
+  // false means the player is definitely not linked, true until the filter is built
+  public boolean mightBeLinked(String lowercaseNickname) {
+    BloomFilter<CharSequence> filter = this.filter;
+    return filter == null || filter.mightContain(lowercaseNickname);
+  }
+
+  // Should be called after the row is written, so a concurrent rebuild either streams it or receives it there
+  public void add(String lowercaseNickname) {
+    BloomFilter<CharSequence> filter = this.filter;
+    if (filter != null) {
+      filter.put(lowercaseNickname);
+    }
+
+    BloomFilter<CharSequence> rebuilding = this.rebuilding;
+    if (rebuilding != null) {
+      rebuilding.put(lowercaseNickname);
+    }
+  }
+
+  public BloomFilter<CharSequence> startRebuild(long linkedPlayers) {
+    // Leave room for the players linked before the next rebuild
+    long expectedInsertions = Math.max(linkedPlayers * 2, MIN_EXPECTED_INSERTIONS);
+    BloomFilter<CharSequence> rebuilding = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions,
+        this.falsePositiveProbability);
+    this.rebuilding = rebuilding;
+    return rebuilding;
+  }
+
+  public void finishRebuild(BloomFilter<CharSequence> rebuilt) {
+    this.filter = rebuilt;
+    if (this.rebuilding == rebuilt) {
+      this.rebuilding = null;
+    }
+  }
+}
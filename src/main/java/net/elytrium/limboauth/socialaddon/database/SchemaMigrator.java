@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import net.elytrium.limboauth.socialaddon.Settings;
+import net.elytrium.limboauth.socialaddon.model.SchemaVersion;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.DaoManager;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.db.DatabaseType;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.support.ConnectionSource;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.support.DatabaseConnection;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.table.TableUtils;
+import org.slf4j.Logger;
+
+public class SchemaMigrator {
+
+  private final ConnectionSource source;
+  private final Dao<SocialPlayer, String> socialPlayerDao;
+  private final Logger logger;
+  private final List<Migration> migrations = List.of(
+      this::createSocialIdIndexes
+  );
+
+  public SchemaMigrator(ConnectionSource source, Dao<SocialPlayer, String> socialPlayerDao, Logger logger) {
+    this.source = source;
+    this.socialPlayerDao = socialPlayerDao;
+    this.logger = logger;
+  }
+
+  public void migrate() throws SQLException {
+    TableUtils.createTableIfNotExists(this.source, SchemaVersion.class);
+    Dao<SchemaVersion, String> versionDao = DaoManager.createDao(this.source, SchemaVersion.class);
+
+    SchemaVersion schemaVersion = versionDao.queryForId(SocialPlayer.TABLE_NAME);
+    if (schemaVersion == null) {
+      schemaVersion = new SchemaVersion(SocialPlayer.TABLE_NAME, 0);
+      versionDao.create(schemaVersion);
+    }
+
+    for (int version = schemaVersion.getVersion(); version < this.migrations.size(); ++version) {
+      this.logger.info("Migrating the {} table to the schema version {}", SocialPlayer.TABLE_NAME, version + 1);
+      try {
+        this.migrations.get(version).migrate();
+      } catch (SQLException e) {
+        // The version is not bumped, so the migration is retried on the next start
+        this.logger.error("Unable to migrate the {} table to the schema version {}, it will be retried on the next start",
+            SocialPlayer.TABLE_NAME, version + 1, e);
+        return;
+      }
+
+      schemaVersion.setVersion(version + 1);
+      versionDao.update(schemaVersion);
+    }
+  }
+
+  private void createSocialIdIndexes() throws SQLException {
+    Set<String> existingIndexes = this.getIndexNames();
+    List<String> failedColumns = new ArrayList<>();
+    for (SocialPlayer.DatabaseField field : SocialPlayer.DatabaseField.values()) {
+      String column = field.name();
+      if (existingIndexes.contains(getIndexName(column).toLowerCase(Locale.ROOT))) {
+        continue;
+      }
+
+      if (Settings.IMP.MAIN.UNIQUE_SOCIAL_ID_INDEXES) {
+        try {
+          this.createIndex(column, true);
+          continue;
+        } catch (SQLException e) {
+          this.logger.warn("Unable to create a unique index on the {} column, perhaps some accounts share the same social. "
+              + "Falling back to a non-unique index", column);
+        }
+      }
+
+      try {
+        this.createIndex(column, false);
+      } catch (SQLException e) {
+        this.logger.warn("Unable to create an index on the {} column: {}", column, e.getMessage());
+        failedColumns.add(column);
+      }
+    }
+
+    if (!failedColumns.isEmpty()) {
+      throw new SQLException("Unable to create the indexes on the " + failedColumns + " columns");
+    }
+  }
+
+  // Lowercase names of the indexes on the social table, the table name case depends on the database
+  private Set<String> getIndexNames() throws SQLException {
+    Set<String> indexNames = new HashSet<>();
+    DatabaseConnection databaseConnection = this.source.getReadOnlyConnection(SocialPlayer.TABLE_NAME);
+    try {
+      DatabaseMetaData metaData = databaseConnection.getUnderlyingConnection().getMetaData();
+      Set<String> tableNames = new LinkedHashSet<>(List.of(SocialPlayer.TABLE_NAME,
+          SocialPlayer.TABLE_NAME.toUpperCase(Locale.ROOT), SocialPlayer.TABLE_NAME.toLowerCase(Locale.ROOT)));
+      for (String tableName : tableNames) {
+        try (ResultSet resultSet = metaData.getIndexInfo(null, null, tableName, false, false)) {
+          while (resultSet.next()) {
+            String indexName = resultSet.getString("INDEX_NAME");
+            if (indexName != null) {
+              indexNames.add(indexName.toLowerCase(Locale.ROOT));
+            }
+          }
+        }
+      }
+    } finally {
+      this.source.releaseConnection(databaseConnection);
+    }
+
+    return indexNames;
+  }
+
+  private void createIndex(String column, boolean unique) throws SQLException {
+    DatabaseType databaseType = this.source.getDatabaseType();
+    StringBuilder statement = new StringBuilder(unique ? "CREATE UNIQUE INDEX " : "CREATE INDEX ");
+    databaseType.appendEscapedEntityName(statement, getIndexName(column));
+    statement.append(" ON ");
+    databaseType.appendEscapedEntityName(statement, SocialPlayer.TABLE_NAME);
+    statement.append(" (");
+    databaseType.appendEscapedEntityName(statement, column);
+    statement.append(")");
+
+    this.socialPlayerDao.executeRawNoArgs(statement.toString());
+  }
+
+  private static String getIndexName(String column) {
+    return SocialPlayer.TABLE_NAME + "_" + column + "_IDX";
+  }
+
+  private interface Migration {
+
+    void migrate() throws SQLException;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.socialaddon.utils.LongObjectHashMap;
+
+public class SocialIdIndex {
+
+  private final LongObjectHashMap<String>[] indexes;
+  private final ReadWriteLock[] locks;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public SocialIdIndex() {
+    SocialPlayer.DatabaseField[] fields = SocialPlayer.DatabaseField.values();
+    this.indexes = new LongObjectHashMap[fields.length];
+    this.locks = new ReadWriteLock[fields.length];
+    for (int i = 0; i < fields.length; ++i) {
+      this.indexes[i] = new LongObjectHashMap<>();
+      this.locks[i] = new ReentrantReadWriteLock();
+    }
+  }
+
+  public String get(SocialPlayer.DatabaseField field, long id) {
+    ReadWriteLock lock = this.locks[field.ordinal()];
+    lock.readLock().lock();
+    try {
+      return this.indexes[field.ordinal()].get(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public void put(SocialPlayer.DatabaseField field, long id, String lowercaseNickname) {
+    ReadWriteLock lock = this.locks[field.ordinal()];
+    lock.writeLock().lock();
+    try {
+      this.indexes[field.ordinal()].put(id, lowercaseNickname);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void add(SocialPlayer player) {
+    for (SocialPlayer.DatabaseField field : SocialPlayer.DatabaseField.values()) {
+      Long id = field.getIdFor(player);
+      if (id != null) {
+        this.put(field, id, player.getLowercaseNickname());
+      }
+    }
+  }
+
+  public void remove(SocialPlayer.DatabaseField field, long id, String lowercaseNickname) {
+    ReadWriteLock lock = this.locks[field.ordinal()];
+    lock.writeLock().lock();
+    try {
+      LongObjectHashMap<String> index = this.indexes[field.ordinal()];
+      if (lowercaseNickname.equals(index.get(id))) {
+        index.remove(id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void remove(SocialPlayer player) {
+    for (SocialPlayer.DatabaseField field : SocialPlayer.DatabaseField.values()) {
+      Long id = field.getIdFor(player);
+      if (id != null) {
+        this.remove(field, id, player.getLowercaseNickname());
+      }
+    }
+  }
+}
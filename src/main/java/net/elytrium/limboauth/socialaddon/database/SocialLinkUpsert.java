@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import net.elytrium.limboauth.socialaddon.Settings;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.db.DatabaseType;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.support.ConnectionSource;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.support.DatabaseConnection;
+
+public class SocialLinkUpsert {
+
+  private static final int MYSQL_LINK_ATTEMPTS = 3;
+
+  private final ConnectionSource source;
+  private final DatabaseType databaseType;
+  private final Dialect dialect;
+
+  public SocialLinkUpsert(ConnectionSource source) {
+    this.source = source;
+    this.databaseType = source.getDatabaseType();
+    this.dialect = Dialect.byDatabaseName(this.databaseType.getDatabaseName());
+  }
+
+  public boolean isSupported() {
+    return this.dialect != null;
+  }
+
+  public Result link(String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink) throws SQLException {
+    DatabaseConnection databaseConnection = this.source.getReadWriteConnection(SocialPlayer.TABLE_NAME);
+    try {
+      Connection connection = databaseConnection.getUnderlyingConnection();
+      switch (this.dialect) {
+        case MYSQL: {
+          return this.linkMysql(connection, lowercaseNickname, field, id, allowRelink);
+        }
+        case POSTGRESQL: {
+          return this.linkPostgresql(connection, lowercaseNickname, field, id, allowRelink);
+        }
+        case SQLITE: {
+          return this.linkSqlite(connection, lowercaseNickname, field, id, allowRelink);
+        }
+        case H2: {
+          return this.linkH2(connection, lowercaseNickname, field, id, allowRelink);
+        }
+        default: {
+          throw new IllegalStateException("Unsupported dialect: " + this.dialect);
+        }
+      }
+    } finally {
+      this.source.releaseConnection(databaseConnection);
+    }
+  }
+
+  // The affected rows count depends on the useAffectedRows client flag, so the row is locked and read in the same transaction instead.
+  // A concurrent insert of the same nickname fails with a duplicate key (or a deadlock on the gap lock), the transaction is retried then.
+  private Result linkMysql(Connection connection, String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try {
+      for (int attempt = 1; ; ++attempt) {
+        try {
+          Result result = this.linkMysqlTransaction(connection, lowercaseNickname, field, id, allowRelink);
+          connection.commit();
+          return result;
+        } catch (SQLException e) {
+          connection.rollback();
+          if (attempt >= MYSQL_LINK_ATTEMPTS || !isRetryable(e)) {
+            throw e;
+          }
+        }
+      }
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  private Result linkMysqlTransaction(Connection connection, String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    String table = this.escape(SocialPlayer.TABLE_NAME);
+    String nickname = this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD);
+    String column = this.escape(field.name());
+    boolean exists;
+    try (PreparedStatement preparedStatement = connection.prepareStatement(
+        "SELECT " + column + " FROM " + table + " WHERE " + nickname + " = ? FOR UPDATE")) {
+      preparedStatement.setString(1, lowercaseNickname);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        exists = resultSet.next();
+        if (exists && !allowRelink && resultSet.getObject(1) != null) {
+          return Result.ALREADY_LINKED;
+        }
+      }
+    }
+
+    if (!exists) {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(this.insert(field).toString())) {
+        this.setInsertParameters(preparedStatement, 1, lowercaseNickname, id);
+        preparedStatement.executeUpdate();
+        return Result.CREATED;
+      }
+    }
+
+    try (PreparedStatement preparedStatement = connection.prepareStatement(
+        "UPDATE " + table + " SET " + column + " = ? WHERE " + nickname + " = ?")) {
+      preparedStatement.setLong(1, id);
+      preparedStatement.setString(2, lowercaseNickname);
+      preparedStatement.executeUpdate();
+      return Result.LINKED;
+    }
+  }
+
+  // 1062 - duplicate entry, 1213 - deadlock found when trying to get lock
+  private static boolean isRetryable(SQLException e) {
+    return e.getErrorCode() == 1062 || e.getErrorCode() == 1213;
+  }
+
+  // xmax is zero only for the freshly inserted row versions, no row is returned when the update was skipped.
+  private Result linkPostgresql(Connection connection, String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    String column = this.escape(field.name());
+    StringBuilder statement = this.insert(field).append(" ON CONFLICT (").append(this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD))
+        .append(") DO UPDATE SET ").append(column).append(" = EXCLUDED.").append(column);
+    if (!allowRelink) {
+      statement.append(" WHERE ").append(this.escape(SocialPlayer.TABLE_NAME)).append('.').append(column).append(" IS NULL");
+    }
+
+    statement.append(" RETURNING (xmax = 0)");
+
+    try (PreparedStatement preparedStatement = connection.prepareStatement(statement.toString())) {
+      this.setInsertParameters(preparedStatement, 1, lowercaseNickname, id);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        if (!resultSet.next()) {
+          return Result.ALREADY_LINKED;
+        }
+
+        return resultSet.getBoolean(1) ? Result.CREATED : Result.LINKED;
+      }
+    }
+  }
+
+  // SQLite reports the same update count for both branches of an upsert, so the insert and the conditional update are separated.
+  // Both statements are atomic on their own and SQLite serializes writers, so this does not reintroduce the race.
+  private Result linkSqlite(Connection connection, String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    StringBuilder insert = this.insert(field).append(" ON CONFLICT (").append(this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD)).append(") DO NOTHING");
+    try (PreparedStatement preparedStatement = connection.prepareStatement(insert.toString())) {
+      this.setInsertParameters(preparedStatement, 1, lowercaseNickname, id);
+      if (preparedStatement.executeUpdate() != 0) {
+        return Result.CREATED;
+      }
+    }
+
+    String column = this.escape(field.name());
+    StringBuilder update = new StringBuilder("UPDATE ").append(this.escape(SocialPlayer.TABLE_NAME))
+        .append(" SET ").append(column).append(" = ? WHERE ").append(this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD)).append(" = ?");
+    if (!allowRelink) {
+      update.append(" AND ").append(column).append(" IS NULL");
+    }
+
+    try (PreparedStatement preparedStatement = connection.prepareStatement(update.toString())) {
+      preparedStatement.setLong(1, id);
+      preparedStatement.setString(2, lowercaseNickname);
+      return preparedStatement.executeUpdate() == 0 ? Result.ALREADY_LINKED : Result.LINKED;
+    }
+  }
+
+  // OLD TABLE contains the previous version of the matched row and nothing for the inserted one.
+  private Result linkH2(Connection connection, String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    String table = this.escape(SocialPlayer.TABLE_NAME);
+    String nickname = this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD);
+    String column = this.escape(field.name());
+    StringBuilder statement = new StringBuilder("SELECT ").append(column).append(" FROM OLD TABLE (MERGE INTO ").append(table)
+        .append(" USING (VALUES (CAST(? AS VARCHAR), CAST(? AS BIGINT))) S (N, I) ON ").append(table).append('.').append(nickname).append(" = S.N")
+        .append(" WHEN MATCHED THEN UPDATE SET ").append(column).append(" = ");
+    if (allowRelink) {
+      statement.append("S.I");
+    } else {
+      statement.append("CASE WHEN ").append(table).append('.').append(column).append(" IS NULL THEN S.I ELSE ")
+          .append(table).append('.').append(column).append(" END");
+    }
+
+    statement.append(" WHEN NOT MATCHED THEN INSERT (").append(nickname).append(", ").append(column).append(", ")
+        .append(this.escape(SocialPlayer.BLOCKED_FIELD)).append(", ")
+        .append(this.escape(SocialPlayer.TOTP_ENABLED_FIELD)).append(", ")
+        .append(this.escape(SocialPlayer.NOTIFY_ENABLED_FIELD)).append(") VALUES (S.N, S.I, ?, ?, ?))");
+
+    try (PreparedStatement preparedStatement = connection.prepareStatement(statement.toString())) {
+      preparedStatement.setString(1, lowercaseNickname);
+      preparedStatement.setLong(2, id);
+      this.setDefaultParameters(preparedStatement, 3);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        if (!resultSet.next()) {
+          return Result.CREATED;
+        }
+
+        return allowRelink || resultSet.getObject(1) == null ? Result.LINKED : Result.ALREADY_LINKED;
+      }
+    }
+  }
+
+  private StringBuilder insert(SocialPlayer.DatabaseField field) {
+    return new StringBuilder("INSERT INTO ").append(this.escape(SocialPlayer.TABLE_NAME)).append(" (")
+        .append(this.escape(SocialPlayer.LOWERCASE_NICKNAME_FIELD)).append(", ")
+        .append(this.escape(field.name())).append(", ")
+        .append(this.escape(SocialPlayer.BLOCKED_FIELD)).append(", ")
+        .append(this.escape(SocialPlayer.TOTP_ENABLED_FIELD)).append(", ")
+        .append(this.escape(SocialPlayer.NOTIFY_ENABLED_FIELD)).append(") VALUES (?, ?, ?, ?, ?)");
+  }
+
+  private void setInsertParameters(PreparedStatement preparedStatement, int index, String lowercaseNickname, long id) throws SQLException {
+    preparedStatement.setString(index, lowercaseNickname);
+    preparedStatement.setLong(index + 1, id);
+    this.setDefaultParameters(preparedStatement, index + 2);
+  }
+
+  private void setDefaultParameters(PreparedStatement preparedStatement, int index) throws SQLException {
+    preparedStatement.setBoolean(index, Settings.IMP.MAIN.DEFAULT_BLOCKED);
+    preparedStatement.setBoolean(index + 1, Settings.IMP.MAIN.DEFAULT_TOTP_ENABLED);
+    preparedStatement.setBoolean(index + 2, Settings.IMP.MAIN.DEFAULT_NOTIFY_ENABLED);
+  }
+
+  private String escape(String entityName) {
+    StringBuilder builder = new StringBuilder();
+    this.databaseType.appendEscapedEntityName(builder, entityName);
+    return builder.toString();
+  }
+
+  public enum Result {
+    CREATED,
+    LINKED,
+    ALREADY_LINKED
+  }
+
+  private enum Dialect {
+    MYSQL,
+    POSTGRESQL,
+    SQLITE,
+    H2;
+
+    static Dialect byDatabaseName(String databaseName) {
+      switch (databaseName) {
+        case "MySQL":
+        case "MariaDB": {
+          return MYSQL;
+        }
+        case "Postgres": {
+          return POSTGRESQL;
+        }
+        case "SQLite": {
+          return SQLITE;
+        }
+        case "H2": {
+          return H2;
+        }
+        default: {
+          return null;
+        }
+      }
+    }
+  }
+}
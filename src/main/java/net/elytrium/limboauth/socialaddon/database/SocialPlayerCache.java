@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import com.google.common.hash.BloomFilter;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.elytrium.limboauth.socialaddon.Settings;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.CloseableIterator;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.stmt.UpdateBuilder;
+import org.slf4j.Logger;
+
+public class SocialPlayerCache {
+
+  private static final int WARM_UP_PROGRESS_STEP = 100000;
+
+  private final Map<String, CachedPlayer> players = new ConcurrentHashMap<>();
+  private final SocialIdIndex index = new SocialIdIndex();
+  private final SocialPlayerStore store;
+  private final LinkedPlayerFilter linkedFilter;
+  private final Dao<SocialPlayer, String> dao;
+  private final SocialLinkUpsert linkUpsert;
+  private final long ttl;
+  private final int maxSize;
+
+  public SocialPlayerCache(Dao<SocialPlayer, String> dao, long ttl, int maxSize, boolean warmUp, LinkedPlayerFilter linkedFilter) {
+    this.dao = dao;
+    this.store = warmUp ? new SocialPlayerStore() : null;
+    this.linkedFilter = linkedFilter;
+    this.linkUpsert = new SocialLinkUpsert(dao.getConnectionSource());
+    this.ttl = ttl;
+    this.maxSize = maxSize;
+  }
+
+  public SocialPlayer queryForId(String lowercaseNickname) throws SQLException {
+    CachedPlayer cachedPlayer = this.players.get(lowercaseNickname);
+    if (cachedPlayer != null && !cachedPlayer.isExpired(this.ttl)) {
+      return cachedPlayer.getPlayer();
+    }
+
+    SocialPlayerStore.Row row = this.lookupRow(lowercaseNickname);
+    if (row != SocialPlayerStore.UNKNOWN) {
+      return this.load(lowercaseNickname, cachedPlayer, row == null ? null : row.toPlayer(lowercaseNickname));
+    }
+
+    SocialPlayer player = this.dao.queryForId(lowercaseNickname);
+    if (this.store != null) {
+      if (player == null) {
+        this.store.remove(lowercaseNickname);
+      } else {
+        this.store.put(player);
+      }
+    }
+
+    return this.load(lowercaseNickname, cachedPlayer, player);
+  }
+
+  public CachedPlayer getIfPresent(String lowercaseNickname) {
+    CachedPlayer cachedPlayer = this.players.get(lowercaseNickname);
+    if (cachedPlayer != null && !cachedPlayer.isExpired(this.ttl)) {
+      return cachedPlayer;
+    }
+
+    SocialPlayerStore.Row row = this.lookupRow(lowercaseNickname);
+    if (row != SocialPlayerStore.UNKNOWN) {
+      this.load(lowercaseNickname, cachedPlayer, row == null ? null : row.toPlayer(lowercaseNickname));
+      return this.players.get(lowercaseNickname);
+    }
+
+    return null;
+  }
+
+  public SocialPlayer queryForSocialId(SocialPlayer.DatabaseField field, Long id) throws SQLException {
+    String lowercaseNickname = this.index.get(field, id);
+    if (lowercaseNickname != null) {
+      SocialPlayer player = this.queryForId(lowercaseNickname);
+      if (player != null && id.equals(field.getIdFor(player))) {
+        return player;
+      }
+
+      this.index.remove(field, id, lowercaseNickname);
+    }
+
+    // The index misses the ids linked by another proxy or by hand, the database is asked and the index is filled back
+
+    List<SocialPlayer> socialPlayerList = this.dao.queryForEq(field.name(), id);
+    if (socialPlayerList.isEmpty()) {
+      return null;
+    }
+
+    SocialPlayer player = socialPlayerList.get(0);
+    this.index.put(field, id, player.getLowercaseNickname());
+    CachedPlayer cachedPlayer = this.players.get(player.getLowercaseNickname());
+    if (cachedPlayer != null && cachedPlayer.getPlayer() != null && !cachedPlayer.isExpired(this.ttl)) {
+      return cachedPlayer.getPlayer();
+    }
+
+    return this.load(player.getLowercaseNickname(), cachedPlayer, player);
+  }
+
+  public void create(SocialPlayer player) throws SQLException {
+    this.write(player.getLowercaseNickname(), () -> this.dao.create(player));
+    this.addLinked(player.getLowercaseNickname());
+    this.index.add(player);
+    this.put(player.getLowercaseNickname(), player);
+    this.store(player);
+  }
+
+  public void update(SocialPlayer player) throws SQLException {
+    this.write(player.getLowercaseNickname(), () -> this.dao.update(player));
+    this.index.add(player);
+    this.put(player.getLowercaseNickname(), player);
+    this.store(player);
+  }
+
+  // The cached players are not invalidated on failure, the caller has to retry or invalidate them and finish the flush
+  public void updateDirtyFields(Map<SocialPlayer, Integer> dirtyFields) throws Exception {
+    this.dao.callBatchTasks(() -> {
+      for (Map.Entry<SocialPlayer, Integer> entry : dirtyFields.entrySet()) {
+        if (entry.getValue() != 0) {
+          this.writeDirtyFields(entry.getKey(), entry.getValue());
+        }
+      }
+
+      return null;
+    });
+
+    dirtyFields.keySet().forEach(this::store);
+  }
+
+  public void delete(SocialPlayer player) throws SQLException {
+    this.write(player.getLowercaseNickname(), () -> this.dao.delete(player));
+    this.index.remove(player);
+    this.put(player.getLowercaseNickname(), null);
+    if (this.store != null) {
+      this.store.remove(player.getLowercaseNickname());
+    }
+  }
+
+  public void updateSocialId(String lowercaseNickname, SocialPlayer.DatabaseField field, Long id) throws SQLException {
+    this.write(lowercaseNickname, () -> {
+      UpdateBuilder<SocialPlayer, String> updateBuilder = this.dao.updateBuilder();
+      updateBuilder.where().eq(SocialPlayer.LOWERCASE_NICKNAME_FIELD, lowercaseNickname);
+      updateBuilder.updateColumnValue(field.name(), id);
+      return updateBuilder.update();
+    });
+
+    this.applySocialId(lowercaseNickname, field, id);
+  }
+
+  public SocialLinkUpsert.Result linkSocialId(String lowercaseNickname, SocialPlayer.DatabaseField field, long id, boolean allowRelink)
+      throws SQLException {
+    if (!this.linkUpsert.isSupported()) {
+      SocialPlayer player = this.queryForId(lowercaseNickname);
+      if (player == null) {
+        this.create(new SocialPlayer(lowercaseNickname));
+        this.updateSocialId(lowercaseNickname, field, id);
+        return SocialLinkUpsert.Result.CREATED;
+      } else if (!allowRelink && field.getIdFor(player) != null) {
+        return SocialLinkUpsert.Result.ALREADY_LINKED;
+      }
+
+      this.updateSocialId(lowercaseNickname, field, id);
+      return SocialLinkUpsert.Result.LINKED;
+    }
+
+    SocialLinkUpsert.Result result;
+    try {
+      result = this.linkUpsert.link(lowercaseNickname, field, id, allowRelink);
+    } catch (SQLException e) {
+      this.invalidate(lowercaseNickname);
+      throw e;
+    }
+
+    if (result == SocialLinkUpsert.Result.CREATED) {
+      // The row is read back instead of being built from the defaults, so the cached flags always match the database
+      this.addLinked(lowercaseNickname);
+      this.invalidate(lowercaseNickname);
+      SocialPlayer player = this.queryForId(lowercaseNickname);
+      if (player != null) {
+        this.index.add(player);
+      }
+    } else if (result == SocialLinkUpsert.Result.LINKED) {
+      this.applySocialId(lowercaseNickname, field, id);
+    }
+
+    return result;
+  }
+
+  public void warmUp(Logger logger) throws SQLException {
+    if (this.store == null) {
+      // The social id index is filled on demand, only the nicknames are read for the linked players filter
+      this.rebuildLinkedFilter();
+      return;
+    }
+
+    final long startTime = System.currentTimeMillis();
+    BloomFilter<CharSequence> rebuiltFilter = this.linkedFilter == null ? null : this.linkedFilter.startRebuild(this.dao.countOf());
+    CloseableIterator<SocialPlayer> iterator = this.dao.iterator();
+    int count = 0;
+    try {
+      while (iterator.hasNext()) {
+        SocialPlayer player = iterator.next();
+        this.index.add(player);
+        this.store.putIfAbsent(player);
+        if (rebuiltFilter != null) {
+          rebuiltFilter.put(player.getLowercaseNickname());
+        }
+
+        if (++count % WARM_UP_PROGRESS_STEP == 0) {
+          logger.info("Loaded {} social players", count);
+        }
+      }
+    } finally {
+      iterator.closeQuietly();
+    }
+
+    this.store.setLoaded(true);
+    if (rebuiltFilter != null) {
+      this.linkedFilter.finishRebuild(rebuiltFilter);
+    }
+
+    logger.info("Loaded {} social players in {} ms", count, System.currentTimeMillis() - startTime);
+  }
+
+  // Reloads the rows kept by the warm-up, otherwise they would be answered from memory forever
+  public void refreshStore(Logger logger) throws SQLException {
+    if (this.store == null || !this.store.isLoaded()) {
+      return;
+    }
+
+    final long startTime = System.currentTimeMillis();
+    this.store.startRebuild();
+    int count = 0;
+    CloseableIterator<SocialPlayer> iterator = this.dao.iterator();
+    try {
+      while (iterator.hasNext()) {
+        SocialPlayer player = iterator.next();
+        this.index.add(player);
+        this.store.putRebuilt(player);
+        ++count;
+      }
+    } finally {
+      iterator.closeQuietly();
+    }
+
+    this.store.finishRebuild();
+    if (Settings.IMP.MAIN.DEBUG) {
+      logger.info("Refreshed {} social players in {} ms", count, System.currentTimeMillis() - startTime);
+    }
+  }
+
+  public void rebuildLinkedFilter() throws SQLException {
+    if (this.linkedFilter == null) {
+      return;
+    }
+
+    BloomFilter<CharSequence> rebuiltFilter = this.linkedFilter.startRebuild(this.dao.countOf());
+    CloseableIterator<SocialPlayer> iterator = this.dao.queryBuilder().selectColumns(SocialPlayer.LOWERCASE_NICKNAME_FIELD).iterator();
+    try {
+      while (iterator.hasNext()) {
+        rebuiltFilter.put(iterator.next().getLowercaseNickname());
+      }
+    } finally {
+      iterator.closeQuietly();
+    }
+
+    this.linkedFilter.finishRebuild(rebuiltFilter);
+  }
+
+  public void invalidate(String lowercaseNickname) {
+    this.players.remove(lowercaseNickname);
+    if (this.store != null) {
+      this.store.invalidate(lowercaseNickname);
+    }
+  }
+
+  public void purge() {
+    this.players.values().removeIf(cachedPlayer -> cachedPlayer.isExpired(this.ttl));
+  }
+
+  private SocialPlayer load(String lowercaseNickname, CachedPlayer previous, SocialPlayer player) {
+    CachedPlayer loaded = new CachedPlayer(player);
+    if (previous == null) {
+      CachedPlayer concurrent = this.players.putIfAbsent(lowercaseNickname, loaded);
+      if (concurrent != null) {
+        return concurrent.getPlayer();
+      }
+    } else if (!this.players.replace(lowercaseNickname, previous, loaded)) {
+      // The entry was rewritten while we were querying the database
+      return player;
+    }
+
+    this.evict();
+    return player;
+  }
+
+  private int writeDirtyFields(SocialPlayer player, int dirtyFields) throws SQLException {
+    UpdateBuilder<SocialPlayer, String> updateBuilder = this.dao.updateBuilder();
+    updateBuilder.where().eq(SocialPlayer.LOWERCASE_NICKNAME_FIELD, player.getLowercaseNickname());
+    if ((dirtyFields & SocialPlayer.BLOCKED_DIRTY) != 0) {
+      updateBuilder.updateColumnValue(SocialPlayer.BLOCKED_FIELD, player.isBlocked());
+    }
+
+    if ((dirtyFields & SocialPlayer.TOTP_ENABLED_DIRTY) != 0) {
+      updateBuilder.updateColumnValue(SocialPlayer.TOTP_ENABLED_FIELD, player.getTotpEnabledFlag());
+    }
+
+    if ((dirtyFields & SocialPlayer.NOTIFY_ENABLED_DIRTY) != 0) {
+      updateBuilder.updateColumnValue(SocialPlayer.NOTIFY_ENABLED_FIELD, player.isNotifyEnabled());
+    }
+
+    return updateBuilder.update();
+  }
+
+  private void applySocialId(String lowercaseNickname, SocialPlayer.DatabaseField field, Long id) {
+    CachedPlayer cachedPlayer = this.players.get(lowercaseNickname);
+    if (cachedPlayer != null && cachedPlayer.getPlayer() != null) {
+      Long previousId = field.getIdFor(cachedPlayer.getPlayer());
+      if (previousId != null) {
+        this.index.remove(field, previousId, lowercaseNickname);
+      }
+
+      field.setIdFor(cachedPlayer.getPlayer(), id);
+      this.store(cachedPlayer.getPlayer());
+    } else {
+      this.invalidate(lowercaseNickname);
+    }
+
+    if (id != null) {
+      this.index.put(field, id, lowercaseNickname);
+    }
+  }
+
+  private SocialPlayerStore.Row lookupRow(String lowercaseNickname) {
+    if (this.linkedFilter != null && !this.linkedFilter.mightBeLinked(lowercaseNickname)) {
+      return null;
+    }
+
+    if (this.store == null || !this.store.isLoaded()) {
+      return SocialPlayerStore.UNKNOWN;
+    }
+
+    return this.store.get(lowercaseNickname);
+  }
+
+  private void addLinked(String lowercaseNickname) {
+    if (this.linkedFilter != null) {
+      this.linkedFilter.add(lowercaseNickname);
+    }
+  }
+
+  private void store(SocialPlayer player) {
+    if (this.store != null) {
+      this.store.put(player);
+    }
+  }
+
+  private void put(String lowercaseNickname, SocialPlayer player) {
+    this.players.put(lowercaseNickname, new CachedPlayer(player));
+    this.evict();
+  }
+
+  private void write(String lowercaseNickname, Write write) throws SQLException {
+    try {
+      write.execute();
+    } catch (SQLException e) {
+      this.invalidate(lowercaseNickname);
+      throw e;
+    }
+  }
+
+  private void evict() {
+    if (this.players.size() <= this.maxSize) {
+      return;
+    }
+
+    this.purge();
+    Iterator<CachedPlayer> iterator = this.players.values().iterator();
+    while (this.players.size() > this.maxSize && iterator.hasNext()) {
+      // Players with pending write-behind changes must stay cached until they are flushed
+      if (!iterator.next().isDirty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private interface Write {
+
+    int execute() throws SQLException;
+  }
+
+  public static class CachedPlayer {
+
+    private final long checkTime = System.currentTimeMillis();
+    private final SocialPlayer player;
+
+    CachedPlayer(SocialPlayer player) {
+      this.player = player;
+    }
+
+    // Players with pending write-behind changes never expire, reloading them would lose the changes
+    public boolean isExpired(long ttl) {
+      return !this.isDirty() && this.checkTime + ttl <= System.currentTimeMillis();
+    }
+
+    public SocialPlayer getPlayer() {
+      return this.player;
+    }
+
+    boolean isDirty() {
+      return this.player != null && this.player.isDirty();
+    }
+  }
+}
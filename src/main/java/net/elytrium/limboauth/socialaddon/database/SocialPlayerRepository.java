@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+
+public class SocialPlayerRepository {
+
+  private final SocialPlayerCache cache;
+  private final ThreadPoolExecutor executor;
+
+  public SocialPlayerRepository(SocialPlayerCache cache, int threads, int queueSize) {
+    this.cache = cache;
+
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+      Thread thread = new Thread(runnable, "LimboAuth-SocialAddon-Database-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  public CompletableFuture<SocialPlayer> queryForId(String lowercaseNickname) {
+    SocialPlayerCache.CachedPlayer cachedPlayer = this.cache.getIfPresent(lowercaseNickname);
+    if (cachedPlayer != null) {
+      return CompletableFuture.completedFuture(cachedPlayer.getPlayer());
+    }
+
+    return this.supplyAsync(() -> this.cache.queryForId(lowercaseNickname));
+  }
+
+  public <T> CompletableFuture<T> supplyAsync(Query<T> query) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      this.executor.execute(() -> {
+        try {
+          future.complete(query.execute());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The queue is full or the addon is reloading, fail fast instead of blocking the proxy threads with the query
+      future.completeExceptionally(e);
+    }
+
+    return future;
+  }
+
+  public CompletableFuture<Void> runAsync(Update update) {
+    return this.supplyAsync(() -> {
+      update.execute();
+      return null;
+    });
+  }
+
+  public SocialPlayerCache getCache() {
+    return this.cache;
+  }
+
+  public void shutdown() {
+    this.executor.shutdown();
+  }
+
+  public interface Query<T> {
+
+    T execute() throws Exception;
+  }
+
+  public interface Update {
+
+    void execute() throws Exception;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+
+public class SocialPlayerStore {
+
+  public static final Row UNKNOWN = new Row(0, 0, 0, (byte) 0);
+
+  private volatile Map<String, Row> rows = new ConcurrentHashMap<>();
+  private Map<String, Row> rebuilding;
+  private Set<String> touched;
+  private volatile boolean loaded;
+
+  // null - the player is not linked, UNKNOWN - the row should be queried from the database
+  public Row get(String lowercaseNickname) {
+    return this.rows.get(lowercaseNickname);
+  }
+
+  public synchronized void put(SocialPlayer player) {
+    this.touch(player.getLowercaseNickname());
+    this.rows.put(player.getLowercaseNickname(), Row.of(player));
+  }
+
+  public void putIfAbsent(SocialPlayer player) {
+    this.rows.putIfAbsent(player.getLowercaseNickname(), Row.of(player));
+  }
+
+  public synchronized void remove(String lowercaseNickname) {
+    this.touch(lowercaseNickname);
+    if (this.loaded) {
+      this.rows.remove(lowercaseNickname);
+    } else {
+      // The warm-up may still stream the deleted row, don't let it be resurrected
+      this.rows.put(lowercaseNickname, UNKNOWN);
+    }
+  }
+
+  public synchronized void invalidate(String lowercaseNickname) {
+    this.touch(lowercaseNickname);
+    this.rows.put(lowercaseNickname, UNKNOWN);
+  }
+
+  // The rows are streamed from the database into a new map, so the changes made by other proxies are noticed
+  public synchronized void startRebuild() {
+    this.rebuilding = new ConcurrentHashMap<>();
+    this.touched = ConcurrentHashMap.newKeySet();
+  }
+
+  public void putRebuilt(SocialPlayer player) {
+    Map<String, Row> rebuilding = this.rebuilding;
+    if (rebuilding != null) {
+      rebuilding.put(player.getLowercaseNickname(), Row.of(player));
+    }
+  }
+
+  // The rows written locally while streaming may be newer than the streamed ones, they are kept as is
+  public synchronized void finishRebuild() {
+    if (this.rebuilding == null) {
+      return;
+    }
+
+    for (String lowercaseNickname : this.touched) {
+      Row row = this.rows.get(lowercaseNickname);
+      if (row == null) {
+        this.rebuilding.remove(lowercaseNickname);
+      } else {
+        this.rebuilding.put(lowercaseNickname, row);
+      }
+    }
+
+    this.rows = this.rebuilding;
+    this.rebuilding = null;
+    this.touched = null;
+  }
+
+  private void touch(String lowercaseNickname) {
+    if (this.touched != null) {
+      this.touched.add(lowercaseNickname);
+    }
+  }
+
+  public int size() {
+    return this.rows.size();
+  }
+
+  public boolean isLoaded() {
+    return this.loaded;
+  }
+
+  public void setLoaded(boolean loaded) {
+    this.loaded = loaded;
+  }
+
+  public static final class Row {
+
+    private static final byte VK_ID_PRESENT = 1;
+    private static final byte TELEGRAM_ID_PRESENT = 1 << 1;
+    private static final byte DISCORD_ID_PRESENT = 1 << 2;
+    private static final byte BLOCKED = 1 << 3;
+    private static final byte TOTP_ENABLED = 1 << 4;
+    private static final byte NOTIFY_ENABLED = 1 << 5;
+
+    private final long vkID;
+    private final long telegramID;
+    private final long discordID;
+    private final byte flags;
+
+    private Row(long vkID, long telegramID, long discordID, byte flags) {
+      this.vkID = vkID;
+      this.telegramID = telegramID;
+      this.discordID = discordID;
+      this.flags = flags;
+    }
+
+    public SocialPlayer toPlayer(String lowercaseNickname) {
+      return new SocialPlayer(lowercaseNickname,
+          this.has(VK_ID_PRESENT) ? this.vkID : null,
+          this.has(TELEGRAM_ID_PRESENT) ? this.telegramID : null,
+          this.has(DISCORD_ID_PRESENT) ? this.discordID : null,
+          this.has(BLOCKED),
+          this.has(TOTP_ENABLED),
+          this.has(NOTIFY_ENABLED)
+      );
+    }
+
+    private boolean has(byte flag) {
+      return (this.flags & flag) != 0;
+    }
+
+    static Row of(SocialPlayer player) {
+      int flags = 0;
+      if (player.getVkID() != null) {
+        flags |= VK_ID_PRESENT;
+      }
+
+      if (player.getTelegramID() != null) {
+        flags |= TELEGRAM_ID_PRESENT;
+      }
+
+      if (player.getDiscordID() != null) {
+        flags |= DISCORD_ID_PRESENT;
+      }
+
+      if (Boolean.TRUE.equals(player.isBlocked())) {
+        flags |= BLOCKED;
+      }
+
+      if (Boolean.TRUE.equals(player.getTotpEnabledFlag())) {
+        flags |= TOTP_ENABLED;
+      }
+
+      if (player.isNotifyEnabled()) {
+        flags |= NOTIFY_ENABLED;
+      }
+
+      return new Row(
+          player.getVkID() == null ? 0 : player.getVkID(),
+          player.getTelegramID() == null ? 0 : player.getTelegramID(),
+          player.getDiscordID() == null ? 0 : player.getDiscordID(),
+          (byte) flags
+      );
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import org.slf4j.Logger;
+
+public class SocialPlayerWriteBehind {
+
+  private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+  private final Map<String, SocialPlayer> pending = new ConcurrentHashMap<>();
+  private final Map<String, Integer> failedAttempts = new HashMap<>();
+  private final SocialPlayerCache cache;
+  private final Logger logger;
+
+  public SocialPlayerWriteBehind(SocialPlayerCache cache, Logger logger) {
+    this.cache = cache;
+    this.logger = logger;
+  }
+
+  public void schedule(SocialPlayer player) {
+    // Repeated toggles of the same player are merged into the dirty fields of the cached instance
+    this.pending.put(player.getLowercaseNickname(), player);
+  }
+
+  // Moves the updates that are still waiting for a retry, so they are not lost on reload
+  public synchronized void takeOver(SocialPlayerWriteBehind previous) {
+    synchronized (previous) {
+      previous.pending.forEach(this.pending::putIfAbsent);
+      this.failedAttempts.putAll(previous.failedAttempts);
+      previous.pending.clear();
+      previous.failedAttempts.clear();
+    }
+  }
+
+  public synchronized void flush() {
+    if (this.pending.isEmpty()) {
+      return;
+    }
+
+    Map<SocialPlayer, Integer> dirtyFields = new HashMap<>(this.pending.size());
+    for (String lowercaseNickname : this.pending.keySet()) {
+      SocialPlayer player = this.pending.remove(lowercaseNickname);
+      if (player != null) {
+        dirtyFields.put(player, player.pollDirtyFields());
+      }
+    }
+
+    try {
+      this.cache.updateDirtyFields(dirtyFields);
+      dirtyFields.keySet().forEach(player -> this.failedAttempts.remove(player.getLowercaseNickname()));
+    } catch (Exception e) {
+      this.logger.error("Failed to flush {} pending social player updates, they will be retried on the next flush", dirtyFields.size(), e);
+      dirtyFields.forEach(this::retry);
+    } finally {
+      dirtyFields.forEach(SocialPlayer::finishFlush);
+    }
+  }
+
+  private void retry(SocialPlayer player, int dirtyFields) {
+    String lowercaseNickname = player.getLowercaseNickname();
+    int attempts = this.failedAttempts.merge(lowercaseNickname, 1, Integer::sum);
+    if (attempts >= MAX_FLUSH_ATTEMPTS) {
+      this.logger.warn("Dropping the pending social player update of {} after {} failed attempts", lowercaseNickname, attempts);
+      this.failedAttempts.remove(lowercaseNickname);
+      this.cache.invalidate(lowercaseNickname);
+      return;
+    }
+
+    // The fields toggled after the failed flush are already marked, so the retry writes the newest state of both
+    player.markDirty(dirtyFields);
+    this.pending.putIfAbsent(lowercaseNickname, player);
+  }
+}
@@ -17,17 +17,21 @@
 
 package net.elytrium.limboauth.socialaddon.listener;
 
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.player.PlayerChooseInitialServerEvent;
 import com.velocitypowered.api.proxy.Player;
+import java.net.InetAddress;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import net.elytrium.commons.config.Placeholders;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import net.elytrium.limboapi.api.player.LimboPlayer;
 import net.elytrium.limboauth.LimboAuth;
 import net.elytrium.limboauth.event.AuthUnregisterEvent;
@@ -38,11 +42,12 @@ import net.elytrium.limboauth.event.TaskEvent;
 import net.elytrium.limboauth.socialaddon.Addon;
 import net.elytrium.limboauth.socialaddon.Settings;
 import net.elytrium.limboauth.socialaddon.SocialManager;
+import net.elytrium.limboauth.socialaddon.database.SocialPlayerRepository;
 import net.elytrium.limboauth.socialaddon.handler.PreLoginLimboSessionHandler;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
 import net.elytrium.limboauth.socialaddon.social.AbstractSocial;
 import net.elytrium.limboauth.socialaddon.utils.GeoIp;
-import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
+import net.elytrium.limboauth.socialaddon.utils.MessageTemplate;
 import net.kyori.adventure.text.Component;
 
 public class LimboAuthListener {
@@ -54,11 +59,14 @@ public class LimboAuthListener {
   private final Component askedKick = Addon.getSerializer().deserialize(Settings.IMP.MAIN.STRINGS.NOTIFY_ASK_KICK_MESSAGE);
   private final Component askedValidate = Addon.getSerializer().deserialize(Settings.IMP.MAIN.STRINGS.NOTIFY_ASK_VALIDATE_GAME);
   private final Component linkAnnouncement;
+  private final MessageTemplate notifyJoinTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.NOTIFY_JOIN, "{IP}", "{LOCATION}");
+  private final MessageTemplate notifyAskValidateTemplate = MessageTemplate.compile(Settings.IMP.MAIN.STRINGS.NOTIFY_ASK_VALIDATE, "{IP}", "{LOCATION}");
 
   private final Addon addon;
   private final LimboAuth plugin;
-  private final Dao<SocialPlayer, String> socialPlayerDao;
+  private final SocialPlayerRepository repository;
   private final SocialManager socialManager;
+  private final Executor proxyExecutor;
 
   private final List<List<AbstractSocial.ButtonItem>> yesNoButtons;
   private final List<List<AbstractSocial.ButtonItem>> keyboard;
@@ -67,12 +75,13 @@ public class LimboAuthListener {
   private final GeoIp geoIp;
   private final boolean auth2faWithoutPassword = Settings.IMP.MAIN.AUTH_2FA_WITHOUT_PASSWORD;
 
-  public LimboAuthListener(Addon addon, LimboAuth plugin, Dao<SocialPlayer, String> socialPlayerDao, SocialManager socialManager,
+  public LimboAuthListener(Addon addon, LimboAuth plugin, SocialPlayerRepository repository, SocialManager socialManager,
                            List<List<AbstractSocial.ButtonItem>> keyboard, GeoIp geoIp) {
     this.addon = addon;
     this.plugin = plugin;
-    this.socialPlayerDao = socialPlayerDao;
+    this.repository = repository;
     this.socialManager = socialManager;
+    this.proxyExecutor = runnable -> addon.getServer().getScheduler().buildTask(addon, runnable).schedule();
     this.keyboard = keyboard;
     this.geoIp = geoIp;
     if (Settings.IMP.MAIN.REVERSE_YES_NO_BUTTONS) {
@@ -131,45 +140,44 @@ public class LimboAuthListener {
   }
 
   @Subscribe
-  public void onAuth(PreAuthorizationEvent event) {
+  public EventTask onAuth(PreAuthorizationEvent event) {
     Player proxyPlayer = event.getPlayer();
-    SocialPlayer player = this.queryPlayer(proxyPlayer);
-    if (player != null && player.isBlocked()) {
-      event.cancel(this.blockedAccount);
-    }
+    return EventTask.resumeWhenComplete(this.acceptOnProxy(this.queryPlayer(proxyPlayer), player -> {
+      if (player != null && player.isBlocked()) {
+        event.cancel(this.blockedAccount);
+      }
 
-    if (this.auth2faWithoutPassword) {
-      if (player != null && player.isTotpEnabled()) {
-        event.setResult(TaskEvent.Result.WAIT);
-        this.plugin.getAuthServer().spawnPlayer(proxyPlayer, new PreLoginLimboSessionHandler(this, event, player));
+      if (this.auth2faWithoutPassword) {
+        if (player != null && player.isTotpEnabled()) {
+          event.setResult(TaskEvent.Result.WAIT);
+          this.plugin.getAuthServer().spawnPlayer(proxyPlayer, new PreLoginLimboSessionHandler(this, event, player));
+        }
       }
-    }
+    }));
   }
 
   @Subscribe
-  public void onAuthCompleted(PostAuthorizationEvent event) {
+  public EventTask onAuthCompleted(PostAuthorizationEvent event) {
     Player proxyPlayer = event.getPlayer().getProxyPlayer();
-    if (!this.auth2faWithoutPassword) {
-      SocialPlayer player = this.queryPlayer(proxyPlayer);
-
-      if (player != null && player.isTotpEnabled()) {
+    return EventTask.resumeWhenComplete(this.acceptOnProxy(this.queryPlayer(proxyPlayer), player -> {
+      if (!this.auth2faWithoutPassword && player != null && player.isTotpEnabled()) {
         event.setResult(TaskEvent.Result.WAIT);
         this.authMainHook(player, event.getPlayer(), event);
       }
-    }
 
-    if (!this.playerExists(proxyPlayer) && this.linkAnnouncement != null) {
-      proxyPlayer.sendMessage(this.linkAnnouncement);
-    }
+      if (player == null && this.linkAnnouncement != null) {
+        proxyPlayer.sendMessage(this.linkAnnouncement);
+      }
+    }));
   }
 
   public void authMainHook(SocialPlayer player, LimboPlayer limboPlayer, TaskEvent event) {
     Player proxyPlayer = limboPlayer.getProxyPlayer();
     this.sessions.put(player.getLowercaseNickname(), new AuthSession(event, limboPlayer));
 
-    String ip = proxyPlayer.getRemoteAddress().getAddress().getHostAddress();
-    this.socialManager.broadcastMessage(player, Placeholders.replace(Settings.IMP.MAIN.STRINGS.NOTIFY_ASK_VALIDATE,
-            ip, Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(ip)).orElse("")),
+    InetAddress address = proxyPlayer.getRemoteAddress().getAddress();
+    this.socialManager.broadcastMessage(player, this.notifyAskValidateTemplate.render(
+            address.getHostAddress(), Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(address)).orElse("")),
         this.yesNoButtons, AbstractSocial.ButtonVisibility.PREFER_INLINE);
 
     proxyPlayer.sendMessage(this.askedValidate);
@@ -185,65 +193,50 @@ public class LimboAuthListener {
   }
 
   @Subscribe
-  public void onGameProfile(PlayerChooseInitialServerEvent event) {
-    SocialPlayer player = this.queryPlayer(event.getPlayer());
-    if (player != null && Settings.IMP.MAIN.ENABLE_NOTIFY && player.isNotifyEnabled()) {
-      String ip = event.getPlayer().getRemoteAddress().getAddress().getHostAddress();
-      this.socialManager.broadcastMessage(player, Placeholders.replace(Settings.IMP.MAIN.STRINGS.NOTIFY_JOIN,
-          ip,
-          Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(ip)).orElse("")), this.keyboard);
-    }
+  public EventTask onGameProfile(PlayerChooseInitialServerEvent event) {
+    return EventTask.resumeWhenComplete(this.acceptOnProxy(this.queryPlayer(event.getPlayer()), player -> {
+      if (player != null && Settings.IMP.MAIN.ENABLE_NOTIFY && player.isNotifyEnabled()) {
+        InetAddress address = event.getPlayer().getRemoteAddress().getAddress();
+        this.socialManager.broadcastMessage(player, this.notifyJoinTemplate.render(
+            address.getHostAddress(),
+            Optional.ofNullable(this.geoIp).map(nonNullGeo -> nonNullGeo.getLocation(address)).orElse("")), this.keyboard);
+      }
+    }));
   }
 
   @Subscribe
-  public void onPlayerLeave(DisconnectEvent event) {
+  public EventTask onPlayerLeave(DisconnectEvent event) {
     if (event.getPlayer().getCurrentServer().isEmpty()) {
-      return;
+      return null;
     }
 
-    SocialPlayer player = this.queryPlayer(event.getPlayer());
-    if (player != null) {
-      if (Settings.IMP.MAIN.ENABLE_NOTIFY && player.isNotifyEnabled()) {
-        this.socialManager.broadcastMessage(player, Settings.IMP.MAIN.STRINGS.NOTIFY_LEAVE, this.keyboard);
-      }
+    return EventTask.resumeWhenComplete(this.acceptOnProxy(this.queryPlayer(event.getPlayer()), player -> {
+      if (player != null) {
+        if (Settings.IMP.MAIN.ENABLE_NOTIFY && player.isNotifyEnabled()) {
+          this.socialManager.broadcastMessage(player, Settings.IMP.MAIN.STRINGS.NOTIFY_LEAVE, this.keyboard);
+        }
 
-      this.sessions.remove(player.getLowercaseNickname());
-    }
+        this.sessions.remove(player.getLowercaseNickname());
+      }
+    }));
   }
 
   @Subscribe
-  public void onUnregister(AuthUnregisterEvent event) {
-    this.addon.unregisterPlayer(event.getNickname());
+  public EventTask onUnregister(AuthUnregisterEvent event) {
+    return EventTask.resumeWhenComplete(this.repository.runAsync(() -> this.addon.unregisterPlayer(event.getNickname())));
   }
 
-  private boolean playerExists(Player player) {
-    try {
-      return this.socialPlayerDao.idExists(player.getUsername().toLowerCase(Locale.ROOT));
-    } catch (SQLException e) {
-      throw new IllegalStateException(e);
-    }
+  private <T> CompletableFuture<Void> acceptOnProxy(CompletableFuture<T> future, Consumer<T> action) {
+    // Cache hits are handled in place, database results are moved off the database threads before touching LimboAPI
+    return future.isDone() ? future.thenAccept(action) : future.thenAcceptAsync(action, this.proxyExecutor);
   }
 
-  private SocialPlayer queryPlayer(Player player) {
-    try {
-      return this.socialPlayerDao.queryForId(player.getUsername().toLowerCase(Locale.ROOT));
-    } catch (SQLException e) {
-      throw new IllegalStateException(e);
-    }
+  private CompletableFuture<SocialPlayer> queryPlayer(Player player) {
+    return this.repository.queryForId(player.getUsername().toLowerCase(Locale.ROOT));
   }
 
-  private SocialPlayer queryPlayer(String dbField, Long id) {
-    try {
-      List<SocialPlayer> l = this.socialPlayerDao.queryForEq(dbField, id);
-
-      if (l.size() == 0) {
-        return null;
-      }
-
-      return l.get(0);
-    } catch (SQLException e) {
-      throw new IllegalStateException(e);
-    }
+  private SocialPlayer queryPlayer(SocialPlayer.DatabaseField dbField, Long id) throws SQLException {
+    return this.repository.getCache().queryForSocialId(dbField, id);
   }
 
   private static final class AuthSession {
@@ -18,6 +18,7 @@
 package net.elytrium.limboauth.socialaddon.listener;
 
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import java.sql.SQLException;
 import net.elytrium.limboauth.event.AuthPluginReloadEvent;
 import net.elytrium.limboauth.socialaddon.Addon;
@@ -33,4 +34,9 @@ public class ReloadListener {
   public void onAuthReload(AuthPluginReloadEvent event) throws SQLException {
     this.addon.onReload();
   }
+
+  @Subscribe
+  public void onProxyShutdown(ProxyShutdownEvent event) {
+    this.addon.onShutdown();
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.model;
+
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.field.DatabaseField;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.table.DatabaseTable;
+
+@SuppressWarnings("unused")
+@DatabaseTable(tableName = SchemaVersion.TABLE_NAME)
+public class SchemaVersion {
+  public static final String TABLE_NAME = "SOCIAL_SCHEMA";
+  public static final String TABLE_FIELD = "TABLE_NAME";
+  public static final String VERSION_FIELD = "VERSION";
+
+  @DatabaseField(id = true, columnName = TABLE_FIELD)
+  private String tableName;
+
+  @DatabaseField(columnName = VERSION_FIELD)
+  private int version;
+
+  public SchemaVersion(String tableName, int version) {
+    this.tableName = tableName;
+    this.version = version;
+  }
+
+  public SchemaVersion() {
+
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public int getVersion() {
+    return this.version;
+  }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
+}
@@ -34,6 +34,10 @@ public class SocialPlayer {
   public static final String TOTP_ENABLED_FIELD = "TOTP_ENABLED";
   public static final String NOTIFY_ENABLED_FIELD = "NOTIFY_ENABLED";
 
+  public static final int BLOCKED_DIRTY = 1;
+  public static final int TOTP_ENABLED_DIRTY = 1 << 1;
+  public static final int NOTIFY_ENABLED_DIRTY = 1 << 2;
+
   @net.elytrium.limboauth.thirdparty.com.j256.ormlite.field.DatabaseField(id = true, columnName = LOWERCASE_NICKNAME_FIELD)
   private String lowercaseNickname;
 
@@ -55,10 +59,24 @@ public class SocialPlayer {
   @net.elytrium.limboauth.thirdparty.com.j256.ormlite.field.DatabaseField(columnName = NOTIFY_ENABLED_FIELD)
   private Boolean notifyEnabled = Settings.IMP.MAIN.DEFAULT_NOTIFY_ENABLED;
 
+  private transient int dirtyFields;
+  private transient int flushingFields;
+
   public SocialPlayer(String lowercaseNickname) {
     this.lowercaseNickname = lowercaseNickname;
   }
 
+  public SocialPlayer(String lowercaseNickname, Long vkID, Long telegramID, Long discordID,
+                      Boolean blocked, Boolean totpEnabled, Boolean notifyEnabled) {
+    this.lowercaseNickname = lowercaseNickname;
+    this.vkID = vkID;
+    this.telegramID = telegramID;
+    this.discordID = discordID;
+    this.blocked = blocked;
+    this.totpEnabled = totpEnabled;
+    this.notifyEnabled = notifyEnabled;
+  }
+
   public SocialPlayer() {
 
   }
@@ -97,14 +115,20 @@ public class SocialPlayer {
 
   public void setBlocked(Boolean blocked) {
     this.blocked = blocked;
+    this.markDirty(BLOCKED_DIRTY);
   }
 
   public Boolean isTotpEnabled() {
     return this.totpEnabled && (this.getDiscordID() != null || this.getVkID() != null || this.getTelegramID() != null);
   }
 
+  public Boolean getTotpEnabledFlag() {
+    return this.totpEnabled;
+  }
+
   public void setTotpEnabled(Boolean totpEnabled) {
     this.totpEnabled = totpEnabled;
+    this.markDirty(TOTP_ENABLED_DIRTY);
   }
 
   public boolean isNotifyEnabled() {
@@ -113,6 +137,27 @@ public class SocialPlayer {
 
   public void setNotifyEnabled(boolean notifyEnabled) {
     this.notifyEnabled = notifyEnabled;
+    this.markDirty(NOTIFY_ENABLED_DIRTY);
+  }
+
+  // The polled fields keep the player dirty until the flush is finished, so the cache doesn't reload it in the meantime
+  public synchronized boolean isDirty() {
+    return (this.dirtyFields | this.flushingFields) != 0;
+  }
+
+  public synchronized void markDirty(int fields) {
+    this.dirtyFields |= fields;
+  }
+
+  public synchronized int pollDirtyFields() {
+    int fields = this.dirtyFields;
+    this.dirtyFields = 0;
+    this.flushingFields |= fields;
+    return fields;
+  }
+
+  public synchronized void finishFlush(int fields) {
+    this.flushingFields &= ~fields;
   }
 
   public enum DatabaseField {
@@ -17,25 +17,37 @@
 
 package net.elytrium.limboauth.socialaddon.social;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import net.elytrium.limboauth.socialaddon.Settings;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import org.slf4j.Logger;
 
 public abstract class AbstractSocial {
 
   private final SocialMessageListener onMessageReceived;
   private final SocialButtonListener onButtonClicked;
+  private final OutboundQueue<OutboundMessage> outboundQueue;
 
-  protected AbstractSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
+  protected AbstractSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, Logger logger, double messagesPerSecond) {
+    this(onMessageReceived, onButtonClicked, logger, messagesPerSecond, 1);
+  }
+
+  protected AbstractSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, Logger logger,
+                           double messagesPerSecond, int maxBatchSize) {
     this.onMessageReceived = onMessageReceived;
     this.onButtonClicked = onButtonClicked;
+    this.outboundQueue = new OutboundQueue<>(this.getClass().getSimpleName(), logger, messagesPerSecond,
+        Settings.IMP.MAIN.OUTBOUND.QUEUE_CAPACITY, Settings.IMP.MAIN.OUTBOUND.MAX_RETRIES, maxBatchSize, OutboundMessage::getId, this::deliverMessages);
   }
 
-  protected void proceedMessage(String dbField, Long id, String message) {
+  protected void proceedMessage(SocialPlayer.DatabaseField dbField, Long id, String message) {
     this.onMessageReceived.accept(dbField, id, message);
   }
 
-  protected void proceedButton(String dbField, Long id, String message) {
+  protected void proceedButton(SocialPlayer.DatabaseField dbField, Long id, String message) {
     this.onButtonClicked.accept(dbField, id, message);
   }
 
@@ -43,27 +55,93 @@ public abstract class AbstractSocial {
 
   public abstract void start() throws SocialInitializationException;
 
+  // Stops receiving the messages, the outbound messages can still be delivered until stop() is called
+  public abstract void stopReceiving();
+
+  // Closes the senders, called after the outbound queue is shut down
   public abstract void stop();
 
-  public abstract String getDbField();
+  public abstract SocialPlayer.DatabaseField getDbField();
 
   public abstract void onPlayerAdded(Long id);
 
   public abstract void onPlayerRemoved(SocialPlayer player);
 
-  public void sendMessage(Long id, String content) {
-    this.sendMessage(id, content, Collections.emptyList(), ButtonVisibility.DEFAULT);
+  // Keyboards passed here are rendered once and reused by the following messages with the same list instance
+  public abstract void registerKeyboard(List<List<ButtonItem>> keyboard);
+
+  public CompletableFuture<Void> sendMessage(Long id, String content) {
+    return this.sendMessage(id, content, Collections.emptyList(), ButtonVisibility.DEFAULT);
+  }
+
+  public CompletableFuture<Void> sendMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    return this.outboundQueue.offer(new OutboundMessage(id, content, buttons, visibility));
+  }
+
+  public CompletableFuture<Void> sendMessage(SocialPlayer player, String content) {
+    return this.sendMessage(player, content, Collections.emptyList(), ButtonVisibility.DEFAULT);
+  }
+
+  public CompletableFuture<Void> sendMessage(SocialPlayer player, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    return this.sendMessage(this.getDbField().getIdFor(player), content, buttons, visibility);
+  }
+
+  // Called from the outbound queue thread and must not block, failing with RetryAfterException puts the message back to the queue.
+  protected abstract CompletableFuture<?> deliverMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility)
+      throws Exception;
+
+  // Socials with maxBatchSize > 1 may override this to send several queued messages with a single request
+  protected List<? extends CompletableFuture<?>> deliverMessages(List<OutboundMessage> messages) {
+    List<CompletableFuture<?>> deliveries = new ArrayList<>(messages.size());
+    for (OutboundMessage message : messages) {
+      try {
+        deliveries.add(this.deliverMessage(message.getId(), message.getContent(), message.getButtons(), message.getVisibility()));
+      } catch (Exception e) {
+        deliveries.add(CompletableFuture.failedFuture(e));
+      }
+    }
+
+    return deliveries;
   }
 
-  public abstract void sendMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility);
+  public boolean canSend(SocialPlayer player) {
+    return this.getDbField().getIdFor(player) != null;
+  }
 
-  public void sendMessage(SocialPlayer player, String content) {
-    this.sendMessage(player, content, Collections.emptyList(), ButtonVisibility.DEFAULT);
+  public OutboundQueue<OutboundMessage> getOutboundQueue() {
+    return this.outboundQueue;
   }
 
-  public abstract void sendMessage(SocialPlayer player, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility);
+  public static class OutboundMessage {
+
+    private final Long id;
+    private final String content;
+    private final List<List<ButtonItem>> buttons;
+    private final ButtonVisibility visibility;
+
+    public OutboundMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+      this.id = id;
+      this.content = content;
+      this.buttons = buttons;
+      this.visibility = visibility;
+    }
+
+    public Long getId() {
+      return this.id;
+    }
+
+    public String getContent() {
+      return this.content;
+    }
 
-  public abstract boolean canSend(SocialPlayer player);
+    public List<List<ButtonItem>> getButtons() {
+      return this.buttons;
+    }
+
+    public ButtonVisibility getVisibility() {
+      return this.visibility;
+    }
+  }
 
   public static class ButtonItem {
 
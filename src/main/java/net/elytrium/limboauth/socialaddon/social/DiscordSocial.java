@@ -19,37 +19,64 @@ package net.elytrium.limboauth.socialaddon.social;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import javax.security.auth.login.LoginException;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.PrivateChannel;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.components.ActionRow;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.interactions.components.buttons.ButtonStyle;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import net.elytrium.limboauth.socialaddon.Settings;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
 
 public class DiscordSocial extends AbstractSocial {
 
+  private final Map<Long, PrivateChannel> privateChannels;
+  private final KeyboardCache<List<ActionRow>> keyboards = new KeyboardCache<>(this::renderKeyboard);
   private JDA jda;
+  private Listener listener;
   private List<RoleAction> onPlayerAddedRoleActions;
   private List<RoleAction> onPlayerRemovedRoleActions;
 
-  public DiscordSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
-    super(onMessageReceived, onButtonClicked);
+  public DiscordSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, Logger logger) {
+    super(onMessageReceived, onButtonClicked, logger, Settings.IMP.MAIN.DISCORD.MESSAGES_PER_SECOND);
+
+    // Most recently used private channels, so sending a message doesn't need to open the channel first
+    int privateChannelCacheSize = Settings.IMP.MAIN.DISCORD.PRIVATE_CHANNEL_CACHE_SIZE;
+    this.privateChannels = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, PrivateChannel> eldest) {
+        return this.size() > privateChannelCacheSize;
+      }
+    });
   }
 
   public void start() throws SocialInitializationException {
@@ -70,7 +97,8 @@ public class DiscordSocial extends AbstractSocial {
       throw new SocialInitializationException(e);
     }
 
-    this.jda.addEventListener(new Listener(this.jda, this::proceedMessage, this::proceedButton));
+    this.listener = new Listener(this.jda, this.privateChannels, this::proceedMessage, this::proceedButton);
+    this.jda.addEventListener(this.listener);
     this.onPlayerAddedRoleActions = Settings.IMP.MAIN.DISCORD.ON_PLAYER_ADDED.stream()
         .map(e -> e.split(" "))
         .map(RoleAction::new)
@@ -86,6 +114,13 @@ public class DiscordSocial extends AbstractSocial {
     return Settings.IMP.MAIN.DISCORD.ENABLED;
   }
 
+  @Override
+  public void stopReceiving() {
+    if (this.jda != null && this.listener != null) {
+      this.jda.removeEventListener(this.listener);
+    }
+  }
+
   @Override
   public void stop() {
     if (this.jda != null) {
@@ -94,8 +129,8 @@ public class DiscordSocial extends AbstractSocial {
   }
 
   @Override
-  public String getDbField() {
-    return SocialPlayer.DISCORD_DB_FIELD;
+  public SocialPlayer.DatabaseField getDbField() {
+    return SocialPlayer.DatabaseField.DISCORD_ID;
   }
 
   @Override
@@ -106,16 +141,32 @@ public class DiscordSocial extends AbstractSocial {
   @Override
   public void onPlayerRemoved(SocialPlayer player) {
     this.onPlayerRemovedRoleActions.forEach(action -> action.doAction(player.getDiscordID()));
+    this.privateChannels.remove(player.getDiscordID());
   }
 
   @Override
-  public void sendMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
-    User user = this.jda.retrieveUserById(id).complete();
-    if (user == null) {
-      return;
-    }
+  public void registerKeyboard(List<List<ButtonItem>> keyboard) {
+    this.keyboards.register(keyboard);
+  }
 
-    List<ActionRow> actionRowList = buttons.stream().map(row ->
+  @Override
+  protected CompletableFuture<?> deliverMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    List<ActionRow> actionRowList = this.keyboards.get(buttons, visibility);
+    return this.openPrivateChannel(id)
+        .thenCompose(privateChannel -> privateChannel
+            .sendMessage(content)
+            .setActionRows(actionRowList)
+            .submit())
+        .whenComplete((message, e) -> {
+          if (e != null) {
+            // The channel may be gone or the user may have closed their DMs, reopen it next time
+            this.privateChannels.remove(id);
+          }
+        });
+  }
+
+  private List<ActionRow> renderKeyboard(List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    return buttons.stream().map(row ->
         ActionRow.of(row.stream().map(e -> {
           ButtonStyle style;
 
@@ -141,45 +192,30 @@ public class DiscordSocial extends AbstractSocial {
           return Button.of(style, e.getId(), e.getValue());
         }).collect(Collectors.toList()))
     ).collect(Collectors.toList());
-
-    user.openPrivateChannel()
-        .submit()
-        .thenAccept(privateChannel -> privateChannel
-            .sendMessage(content)
-            .setActionRows(actionRowList)
-            .submit()
-            .exceptionally(e -> {
-              if (Settings.IMP.MAIN.DEBUG) {
-                e.printStackTrace(); // printStackTrace is necessary there
-              }
-              return null;
-            }))
-        .exceptionally(e -> {
-          if (Settings.IMP.MAIN.DEBUG) {
-            e.printStackTrace(); // printStackTrace is necessary there
-          }
-          return null;
-        });
   }
 
-  @Override
-  public void sendMessage(SocialPlayer player, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
-    this.sendMessage(player.getDiscordID(), content, buttons, visibility);
-  }
+  private CompletableFuture<PrivateChannel> openPrivateChannel(long id) {
+    PrivateChannel privateChannel = this.privateChannels.get(id);
+    if (privateChannel != null) {
+      return CompletableFuture.completedFuture(privateChannel);
+    }
 
-  @Override
-  public boolean canSend(SocialPlayer player) {
-    return player.getDiscordID() != null;
+    return this.jda.openPrivateChannelById(id).submit().thenApply(openedChannel -> {
+      this.privateChannels.put(id, openedChannel);
+      return openedChannel;
+    });
   }
 
   private static class Listener extends ListenerAdapter {
 
     private final List<Role> requiredRoles;
+    private final Map<Long, RoleCheck> roleChecks;
+    private final Map<Long, PrivateChannel> privateChannels;
     private final SocialMessageListener onMessageReceived;
     private final SocialButtonListener onButtonClicked;
 
     @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
-    Listener(JDA jda, SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
+    Listener(JDA jda, Map<Long, PrivateChannel> privateChannels, SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
       List<Role> list = new ArrayList<>();
       for (Object requiredRole : Settings.IMP.MAIN.DISCORD.REQUIRED_ROLES) {
         Role roleById;
@@ -196,6 +232,14 @@ public class DiscordSocial extends AbstractSocial {
         }
       }
       this.requiredRoles = list;
+      int roleCheckCacheSize = Settings.IMP.MAIN.DISCORD.REQUIRED_ROLES_CACHE_SIZE;
+      this.roleChecks = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RoleCheck> eldest) {
+          return this.size() > roleCheckCacheSize;
+        }
+      });
+      this.privateChannels = privateChannels;
       this.onMessageReceived = onMessageReceived;
       this.onButtonClicked = onButtonClicked;
     }
@@ -203,31 +247,114 @@ public class DiscordSocial extends AbstractSocial {
     @Override
     public void onMessageReceived(@NotNull MessageReceivedEvent event) {
       User user = event.getAuthor();
-      if (user.getIdLong() == event.getJDA().getSelfUser().getIdLong()) {
+      long userId = user.getIdLong();
+      if (userId == event.getJDA().getSelfUser().getIdLong()) {
+        return;
+      }
+
+      if (event.isFromType(ChannelType.PRIVATE)) {
+        this.privateChannels.put(userId, event.getPrivateChannel());
+      }
+
+      String message = event.getMessage().getContentRaw();
+      if (this.requiredRoles.isEmpty()) {
+        this.onMessageReceived.accept(SocialPlayer.DatabaseField.DISCORD_ID, userId, message);
         return;
       }
 
+      this.hasRequiredRoles(user).whenComplete((allowed, e) -> {
+        if (e != null) {
+          if (Settings.IMP.MAIN.DEBUG) {
+            e.printStackTrace(); // printStackTrace is necessary there
+          }
+        } else if (allowed) {
+          this.onMessageReceived.accept(SocialPlayer.DatabaseField.DISCORD_ID, userId, message);
+        } else {
+          event.getChannel().sendMessage(Settings.IMP.MAIN.DISCORD.NO_ROLES_MESSAGE).queue();
+        }
+      });
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(@NotNull GuildMemberRoleAddEvent event) {
+      this.roleChecks.remove(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(@NotNull GuildMemberRoleRemoveEvent event) {
+      this.roleChecks.remove(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRemove(@NotNull GuildMemberRemoveEvent event) {
+      this.roleChecks.remove(event.getUser().getIdLong());
+    }
+
+    // Role events are received only with the guild member cache enabled, otherwise the result is kept until it expires
+    private CompletableFuture<Boolean> hasRequiredRoles(User user) {
+      long userId = user.getIdLong();
+      long now = System.currentTimeMillis();
+      RoleCheck check = this.roleChecks.get(userId);
+      if (check != null && check.expiresAt > now) {
+        return check.result;
+      }
+
+      Map<Guild, CompletableFuture<Member>> members = new HashMap<>();
+      CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
       for (Role role : this.requiredRoles) {
-        Member member = role.getGuild().retrieveMember(user).complete();
-        if (member == null || !member.getRoles().contains(role)) {
-          user.openPrivateChannel()
-              .submit()
-              .thenAccept(privateChannel -> privateChannel.sendMessage(Settings.IMP.MAIN.DISCORD.NO_ROLES_MESSAGE).queue());
-          return;
+        CompletableFuture<Member> member = members.computeIfAbsent(role.getGuild(), guild -> this.retrieveMember(guild, user));
+        result = result.thenCombine(member, (allowed, retrievedMember) -> allowed && retrievedMember != null && retrievedMember.getRoles().contains(role));
+      }
+
+      RoleCheck newCheck = new RoleCheck(result, now + Settings.IMP.MAIN.DISCORD.REQUIRED_ROLES_CACHE_TTL);
+      this.roleChecks.put(userId, newCheck);
+      result.whenComplete((allowed, e) -> {
+        if (e != null) {
+          this.roleChecks.remove(userId, newCheck);
         }
+      });
+
+      return result;
+    }
+
+    private CompletableFuture<Member> retrieveMember(Guild guild, User user) {
+      Member member = guild.getMember(user);
+      if (member != null) {
+        return CompletableFuture.completedFuture(member);
       }
 
-      this.onMessageReceived.accept(SocialPlayer.DISCORD_DB_FIELD, event.getAuthor().getIdLong(), event.getMessage().getContentRaw());
+      return guild.retrieveMember(user).submit().exceptionally(e -> {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ErrorResponseException) {
+          ErrorResponse response = ((ErrorResponseException) cause).getErrorResponse();
+          if (response == ErrorResponse.UNKNOWN_MEMBER || response == ErrorResponse.UNKNOWN_USER) {
+            return null;
+          }
+        }
+
+        throw new CompletionException(cause);
+      });
     }
 
     @Override
     public void onButtonInteraction(@NotNull ButtonInteractionEvent event) {
       event.deferEdit().queue();
-      this.onButtonClicked.accept(SocialPlayer.DISCORD_DB_FIELD, event.getUser().getIdLong(), event.getButton().getId());
+      this.onButtonClicked.accept(SocialPlayer.DatabaseField.DISCORD_ID, event.getUser().getIdLong(), event.getButton().getId());
     }
 
   }
 
+  private static final class RoleCheck {
+
+    private final CompletableFuture<Boolean> result;
+    private final long expiresAt;
+
+    private RoleCheck(CompletableFuture<Boolean> result, long expiresAt) {
+      this.result = result;
+      this.expiresAt = expiresAt;
+    }
+  }
+
   private final class RoleAction {
     private final RoleActionType action;
     private final Role role;
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keyboards are fixed after the load, so the platform objects are built once and reused by every message.
+public class KeyboardCache<T> {
+
+  private static final AbstractSocial.ButtonVisibility[] VISIBILITIES = AbstractSocial.ButtonVisibility.values();
+
+  private final Renderer<T> renderer;
+  private volatile Map<List<List<AbstractSocial.ButtonItem>>, Object[]> keyboards = new IdentityHashMap<>();
+
+  public KeyboardCache(Renderer<T> renderer) {
+    this.renderer = renderer;
+    this.register(Collections.emptyList());
+  }
+
+  public synchronized void register(List<List<AbstractSocial.ButtonItem>> buttons) {
+    Object[] rendered = new Object[VISIBILITIES.length];
+    for (AbstractSocial.ButtonVisibility visibility : VISIBILITIES) {
+      rendered[visibility.ordinal()] = this.renderer.render(buttons, visibility);
+    }
+
+    Map<List<List<AbstractSocial.ButtonItem>>, Object[]> updated = new IdentityHashMap<>(this.keyboards);
+    updated.put(buttons, rendered);
+    this.keyboards = updated;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(List<List<AbstractSocial.ButtonItem>> buttons, AbstractSocial.ButtonVisibility visibility) {
+    Object[] rendered = this.keyboards.get(buttons);
+    if (rendered == null) {
+      return this.renderer.render(buttons, visibility);
+    }
+
+    return (T) rendered[visibility.ordinal()];
+  }
+
+  public interface Renderer<T> {
+
+    T render(List<List<AbstractSocial.ButtonItem>> buttons, AbstractSocial.ButtonVisibility visibility);
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.slf4j.Logger;
+
+// A single thread starts the deliveries without waiting for them, a token bucket keeps the rate below the platform limits.
+// Every permit sends the first queued message together with up to maxBatchSize - 1 messages that are already waiting.
+// Only one message per peer is in flight, the next ones wait until it is delivered, so a rate limited message is never overtaken.
+public class OutboundQueue<T> {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  // Dropped messages are counted and reported at most once per interval, so a join wave doesn't flood the console
+  private static final long DROP_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final String name;
+  private final Logger logger;
+  private final BlockingDeque<Entry<T>> queue = new LinkedBlockingDeque<>();
+  // Peers with a message in flight, mapped to their messages taken from the queue in the meantime
+  private final Map<Object, ArrayDeque<Entry<T>>> peers = new HashMap<>();
+  private final int capacity;
+  private final double permitsPerNano;
+  private final double maxPermits;
+  private final int maxRetries;
+  private final int maxBatchSize;
+  private final Function<T, ?> peer;
+  private final Sender<T> sender;
+  private final AtomicInteger droppedMessages = new AtomicInteger();
+  private final AtomicLong lastDropLog = new AtomicLong(System.nanoTime() - DROP_LOG_INTERVAL_NANOS);
+
+  private double permits;
+  private long lastRefill;
+  private volatile long pausedUntil;
+
+  private final AtomicInteger unfinished = new AtomicInteger();
+  private volatile boolean running = true;
+  private volatile boolean closing;
+  private Thread thread;
+
+  public OutboundQueue(String name, Logger logger, double messagesPerSecond, int capacity, int maxRetries, int maxBatchSize,
+                       Function<T, ?> peer, Sender<T> sender) {
+    this.name = name;
+    this.logger = logger;
+    this.capacity = capacity;
+    double rate = Math.max(messagesPerSecond, 1);
+    this.permitsPerNano = rate / NANOS_PER_SECOND;
+    this.maxPermits = rate;
+    this.maxRetries = maxRetries;
+    this.maxBatchSize = Math.max(maxBatchSize, 1);
+    this.peer = peer;
+    this.sender = sender;
+    this.permits = this.maxPermits;
+    this.lastRefill = System.nanoTime();
+  }
+
+  public CompletableFuture<Void> offer(T message) {
+    Entry<T> entry = new Entry<>(message);
+    if (!this.running || this.closing) {
+      this.drop(entry, new MessageDroppedException(this.name + " is stopped, the message was dropped"));
+      return entry.result;
+    }
+
+    // The capacity counts the queued, held and in flight messages
+    int unfinished = this.unfinished.incrementAndGet();
+    entry.result.whenComplete((ignored, e) -> this.onFinished());
+    if (unfinished > this.capacity) {
+      this.drop(entry, new MessageDroppedException(this.name + " outbound queue is full (" + this.capacity + " messages), the message was dropped"));
+    } else {
+      this.queue.offerLast(entry);
+      this.ensureStarted();
+    }
+
+    return entry.result;
+  }
+
+  public int size() {
+    return this.queue.size();
+  }
+
+  // Stops accepting the new messages and waits until the queued ones are delivered, the rest is dropped after the timeout
+  public void shutdown(long timeoutMillis) throws InterruptedException {
+    this.closing = true;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (this.unfinished) {
+      long remaining;
+      while (this.unfinished.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this.unfinished, remaining);
+      }
+    }
+
+    this.shutdown();
+  }
+
+  public synchronized void shutdown() {
+    this.running = false;
+    if (this.thread != null) {
+      this.thread.interrupt();
+    }
+
+    // The queue is drained under the same lock, so a concurrent release can't put a message back after it
+    synchronized (this.peers) {
+      List<Entry<T>> dropped = new ArrayList<>();
+      this.queue.drainTo(dropped);
+      this.peers.values().stream().filter(Objects::nonNull).forEach(dropped::addAll);
+      this.peers.clear();
+      dropped.forEach(entry -> entry.result.completeExceptionally(new MessageDroppedException(this.name + " is stopped, the message was dropped")));
+    }
+  }
+
+  private void onFinished() {
+    if (this.unfinished.decrementAndGet() == 0 && this.closing) {
+      synchronized (this.unfinished) {
+        this.unfinished.notifyAll();
+      }
+    }
+  }
+
+  private synchronized void ensureStarted() {
+    if (this.thread == null && this.running) {
+      this.thread = new Thread(this::run, "LimboAuth-SocialAddon-" + this.name + "-Outbound");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+  }
+
+  private void run() {
+    while (this.running) {
+      List<Entry<T>> batch = new ArrayList<>(this.maxBatchSize);
+      try {
+        Entry<T> first = this.queue.takeFirst();
+        if (this.hold(first)) {
+          continue;
+        }
+
+        batch.add(first);
+        this.acquire();
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      Entry<T> next;
+      while (batch.size() < this.maxBatchSize && (next = this.queue.pollFirst()) != null) {
+        if (!this.hold(next)) {
+          batch.add(next);
+        }
+      }
+
+      List<T> messages = new ArrayList<>(batch.size());
+      batch.forEach(entry -> messages.add(entry.message));
+
+      List<? extends CompletableFuture<?>> deliveries;
+      try {
+        deliveries = this.sender.send(messages);
+      } catch (Throwable e) {
+        batch.forEach(entry -> this.complete(entry, e));
+        continue;
+      }
+
+      for (int i = 0; i < batch.size(); ++i) {
+        Entry<T> entry = batch.get(i);
+        deliveries.get(i).whenComplete((ignored, e) -> this.complete(entry, e));
+      }
+    }
+  }
+
+  // Returns true if another message to the same peer is in flight, the entry is sent after it
+  private boolean hold(Entry<T> entry) {
+    if (entry.owner) {
+      entry.owner = false;
+      return false;
+    }
+
+    Object peer = this.peer.apply(entry.message);
+    synchronized (this.peers) {
+      if (!this.peers.containsKey(peer)) {
+        this.peers.put(peer, null);
+        return false;
+      }
+
+      this.peers.computeIfAbsent(peer, key -> new ArrayDeque<>()).addLast(entry);
+      return true;
+    }
+  }
+
+  // Puts the retried or the next held message of the peer to the head of the queue, the peer stays reserved for it
+  private void release(Entry<T> entry, boolean retry) {
+    Object peer = this.peer.apply(entry.message);
+    synchronized (this.peers) {
+      ArrayDeque<Entry<T>> held = this.peers.get(peer);
+      Entry<T> next = retry ? entry : held == null ? null : held.pollFirst();
+      if (next == null) {
+        this.peers.remove(peer);
+        return;
+      }
+
+      if (!this.running) {
+        next.result.completeExceptionally(new MessageDroppedException(this.name + " is stopped, the message was dropped"));
+        return;
+      }
+
+      next.owner = true;
+      this.queue.offerFirst(next);
+    }
+  }
+
+  private void complete(Entry<T> entry, Throwable e) {
+    if (e == null) {
+      entry.result.complete(null);
+    } else {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      if (cause instanceof RetryAfterException) {
+        RetryAfterException retryAfter = (RetryAfterException) cause;
+        this.pausedUntil = Math.max(this.pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfter.getRetryAfterMillis()));
+        if (++entry.attempts > this.maxRetries) {
+          this.drop(entry,
+              new MessageDroppedException(this.name + " rate limit was hit " + entry.attempts + " times, the message was dropped", retryAfter));
+        } else {
+          this.release(entry, true);
+          return;
+        }
+      } else {
+        if (Settings.IMP.MAIN.DEBUG) {
+          cause.printStackTrace(); // printStackTrace is necessary there
+        }
+
+        entry.result.completeExceptionally(cause);
+      }
+    }
+
+    this.release(entry, false);
+  }
+
+  private void acquire() throws InterruptedException {
+    while (true) {
+      long now = System.nanoTime();
+      long paused = this.pausedUntil - now;
+      if (paused > 0) {
+        TimeUnit.NANOSECONDS.sleep(paused);
+        this.permits = 0;
+        this.lastRefill = System.nanoTime();
+        continue;
+      }
+
+      this.permits = Math.min(this.maxPermits, this.permits + (now - this.lastRefill) * this.permitsPerNano);
+      this.lastRefill = now;
+      if (this.permits >= 1) {
+        --this.permits;
+        return;
+      }
+
+      TimeUnit.NANOSECONDS.sleep((long) Math.ceil((1 - this.permits) / this.permitsPerNano));
+    }
+  }
+
+  private void drop(Entry<T> entry, MessageDroppedException e) {
+    if (Settings.IMP.MAIN.DEBUG) {
+      e.printStackTrace(); // printStackTrace is necessary there
+    }
+
+    this.droppedMessages.incrementAndGet();
+    long now = System.nanoTime();
+    long lastLog = this.lastDropLog.get();
+    if (now - lastLog >= DROP_LOG_INTERVAL_NANOS && this.lastDropLog.compareAndSet(lastLog, now)) {
+      this.logger.warn("Dropped {} outbound {} messages, last reason: {}", this.droppedMessages.getAndSet(0), this.name, e.getMessage());
+    }
+
+    entry.result.completeExceptionally(e);
+  }
+
+  public interface Sender<T> {
+
+    // Returns one future per message, in the same order
+    List<? extends CompletableFuture<?>> send(List<T> messages) throws Exception;
+  }
+
+  private static final class Entry<T> {
+
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final T message;
+    private int attempts;
+    // Set when the peer is already reserved for this entry
+    private volatile boolean owner;
+
+    private Entry(T message) {
+      this.message = message;
+    }
+  }
+}
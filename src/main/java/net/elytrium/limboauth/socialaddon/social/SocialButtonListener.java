@@ -17,6 +17,8 @@
 
 package net.elytrium.limboauth.socialaddon.social;
 
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+
 public interface SocialButtonListener {
-  void accept(String dbField, Long id, String buttonId);
+  void accept(SocialPlayer.DatabaseField dbField, Long id, String buttonId);
 }
@@ -17,7 +17,9 @@
 
 package net.elytrium.limboauth.socialaddon.social;
 
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+
 public interface SocialButtonListenerAdapter {
 
-  void accept(String dbField, Long id) throws Exception;
+  void accept(SocialPlayer.DatabaseField dbField, Long id) throws Exception;
 }
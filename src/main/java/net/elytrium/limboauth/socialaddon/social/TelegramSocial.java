@@ -18,13 +18,20 @@
 package net.elytrium.limboauth.socialaddon.social;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import net.elytrium.limboauth.socialaddon.Settings;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import org.slf4j.Logger;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -41,13 +48,18 @@ import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
 public class TelegramSocial extends AbstractSocial {
 
+  private static final Pattern SECRET_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,256}");
+
   private final TelegramBotsApi api;
+  private final KeyboardCache<ReplyKeyboard> keyboards = new KeyboardCache<>(this::renderKeyboard);
   private TGBot bot;
   private BotSession botSession;
+  private TelegramWebhookServer webhookServer;
 
   @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
-  public TelegramSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) throws SocialInitializationException {
-    super(onMessageReceived, onButtonClicked);
+  public TelegramSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, Logger logger)
+      throws SocialInitializationException {
+    super(onMessageReceived, onButtonClicked, logger, Settings.IMP.MAIN.TELEGRAM.MESSAGES_PER_SECOND);
 
     try {
       this.api = new TelegramBotsApi(DefaultBotSession.class);
@@ -64,23 +76,56 @@ public class TelegramSocial extends AbstractSocial {
   @Override
   public void start() throws SocialInitializationException {
     try {
-      this.bot = new TGBot(Settings.IMP.MAIN.TELEGRAM.TOKEN, this::proceedMessage, this::proceedButton);
-      this.botSession = this.api.registerBot(this.bot);
-    } catch (TelegramApiException e) {
+      DefaultBotOptions options = new DefaultBotOptions();
+      options.setMaxThreads(Settings.IMP.MAIN.OUTBOUND.SENDER_THREADS);
+      this.bot = new TGBot(Settings.IMP.MAIN.TELEGRAM.TOKEN, this::proceedMessage, this::proceedButton, options);
+      if (Settings.IMP.MAIN.TELEGRAM.WEBHOOK.ENABLED) {
+        this.startWebhook();
+      } else {
+        this.botSession = this.api.registerBot(this.bot);
+      }
+    } catch (TelegramApiException | IOException e) {
       throw new SocialInitializationException(e);
     }
   }
 
+  private void startWebhook() throws TelegramApiException, IOException, SocialInitializationException {
+    Settings.MAIN.TELEGRAM.WEBHOOK settings = Settings.IMP.MAIN.TELEGRAM.WEBHOOK;
+    if (!SECRET_PATTERN.matcher(settings.SECRET).matches()) {
+      throw new SocialInitializationException(
+          new IllegalArgumentException("Telegram webhook secret should consist of 1-256 A-Z, a-z, 0-9, _ and - characters"));
+    }
+
+    this.webhookServer = new TelegramWebhookServer(settings.BIND_ADDRESS, settings.PORT, settings.SECRET, settings.THREADS, this.bot::onUpdateReceived);
+    this.webhookServer.start();
+
+    SetWebhook setWebhook = new SetWebhook((settings.URL.endsWith("/") ? settings.URL : settings.URL + "/") + settings.SECRET);
+    setWebhook.setSecretToken(settings.SECRET);
+    setWebhook.setAllowedUpdates(List.of("message", "callback_query"));
+    this.bot.execute(setWebhook);
+  }
+
   @Override
-  public void stop() {
+  public void stopReceiving() {
     if (this.botSession != null) {
       this.botSession.stop();
     }
+
+    if (this.webhookServer != null) {
+      this.webhookServer.stop();
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.bot != null) {
+      this.bot.onClosing();
+    }
   }
 
   @Override
-  public String getDbField() {
-    return SocialPlayer.TELEGRAM_DB_FIELD;
+  public SocialPlayer.DatabaseField getDbField() {
+    return SocialPlayer.DatabaseField.TELEGRAM_ID;
   }
 
   @Override
@@ -94,7 +139,17 @@ public class TelegramSocial extends AbstractSocial {
   }
 
   @Override
-  public void sendMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+  public void registerKeyboard(List<List<ButtonItem>> keyboard) {
+    this.keyboards.register(keyboard);
+  }
+
+  @Override
+  protected CompletableFuture<?> deliverMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility)
+      throws TelegramApiException {
+    return this.bot.sendMessage(id, content, this.keyboards.get(buttons, visibility));
+  }
+
+  private ReplyKeyboard renderKeyboard(List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
     ReplyKeyboard keyboard;
     switch (visibility) {
       case PREFER_INLINE: {
@@ -117,26 +172,19 @@ public class TelegramSocial extends AbstractSocial {
       }
     }
 
-    this.bot.sendMessage(id, content, keyboard);
-  }
-
-  @Override
-  public void sendMessage(SocialPlayer player, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
-    this.sendMessage(player.getTelegramID(), content, buttons, visibility);
-  }
-
-  @Override
-  public boolean canSend(SocialPlayer player) {
-    return player.getTelegramID() != null;
+    return keyboard;
   }
 
   private static final class TGBot extends TelegramLongPollingBot {
 
+    private static final int TOO_MANY_REQUESTS = 429;
+
     private final String token;
     private final SocialMessageListener onMessageReceived;
     private final SocialButtonListener onButtonClicked;
 
-    private TGBot(String token, SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
+    private TGBot(String token, SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, DefaultBotOptions options) {
+      super(options);
       this.token = token;
       this.onMessageReceived = onMessageReceived;
       this.onButtonClicked = onButtonClicked;
@@ -152,21 +200,24 @@ public class TelegramSocial extends AbstractSocial {
       return this.token;
     }
 
-    public void sendMessage(Long id, String content, ReplyKeyboard keyboard) {
+    public CompletableFuture<Message> sendMessage(Long id, String content, ReplyKeyboard keyboard) throws TelegramApiException {
       SendMessage sendMessage = new SendMessage();
       sendMessage.setChatId(String.valueOf(id));
       sendMessage.setText(content);
       sendMessage.setReplyMarkup(keyboard);
 
-      try {
-        this.sendApiMethod(sendMessage);
-      } catch (TelegramApiRequestException e) {
-        if (Settings.IMP.MAIN.DEBUG) {
-          e.printStackTrace(); // printStackTrace is necessary there
+      return this.executeAsync(sendMessage).exceptionallyCompose(e -> {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TelegramApiRequestException) {
+          TelegramApiRequestException requestException = (TelegramApiRequestException) cause;
+          if (requestException.getErrorCode() != null && requestException.getErrorCode() == TOO_MANY_REQUESTS) {
+            Integer retryAfter = requestException.getParameters() == null ? null : requestException.getParameters().getRetryAfter();
+            return CompletableFuture.failedFuture(new RetryAfterException(retryAfter == null ? 1000L : retryAfter * 1000L, requestException));
+          }
         }
-      } catch (TelegramApiException e) {
-        e.printStackTrace(); // printStackTrace is necessary there
-      }
+
+        return CompletableFuture.failedFuture(cause);
+      });
     }
 
     @Override
@@ -174,14 +225,14 @@ public class TelegramSocial extends AbstractSocial {
       if (update.hasMessage()) {
         Message message = update.getMessage();
         if (message != null && message.hasText()) {
-          this.onMessageReceived.accept(SocialPlayer.TELEGRAM_DB_FIELD, message.getChatId(), message.getText());
+          this.onMessageReceived.accept(SocialPlayer.DatabaseField.TELEGRAM_ID, message.getChatId(), message.getText());
         }
       }
 
       if (update.hasCallbackQuery()) {
         CallbackQuery query = update.getCallbackQuery();
         if (query != null) {
-          this.onButtonClicked.accept(SocialPlayer.TELEGRAM_DB_FIELD, query.getFrom().getId(), query.getData());
+          this.onButtonClicked.accept(SocialPlayer.DatabaseField.TELEGRAM_ID, query.getFrom().getId(), query.getData());
         }
       }
     }
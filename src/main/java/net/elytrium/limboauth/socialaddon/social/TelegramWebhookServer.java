@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+// Receives the updates Telegram pushes to the webhook, TLS is expected to be terminated by a reverse proxy.
+public class TelegramWebhookServer {
+
+  private static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+  private static final int MAX_BODY_SIZE = 1 << 20;
+
+  private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String pathSuffix;
+  private final byte[] secret;
+  private final Consumer<Update> onUpdate;
+
+  public TelegramWebhookServer(String bindAddress, int port, String secret, int threads, Consumer<Update> onUpdate) throws IOException {
+    this.pathSuffix = "/" + secret;
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    this.onUpdate = onUpdate;
+
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "LimboAuth-SocialAddon-Telegram-Webhook-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(this.executor);
+  }
+
+  public void start() {
+    this.server.start();
+  }
+
+  public void stop() {
+    this.server.stop(0);
+    this.executor.shutdown();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      this.process(exchange);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void process(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(405, -1);
+      return;
+    }
+
+    // The body is read before any response, so the connection can be kept alive
+    byte[] bytes;
+    try (InputStream body = exchange.getRequestBody()) {
+      bytes = body.readNBytes(MAX_BODY_SIZE + 1);
+    }
+
+    // The path only hides the endpoint, the header proves that the request comes from Telegram
+    String token = exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER);
+    if (!exchange.getRequestURI().getPath().endsWith(this.pathSuffix)
+        || token == null || !MessageDigest.isEqual(this.secret, token.getBytes(StandardCharsets.UTF_8))) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+
+    if (bytes.length > MAX_BODY_SIZE) {
+      exchange.sendResponseHeaders(413, -1);
+      return;
+    }
+
+    Update update;
+    try {
+      update = this.mapper.readValue(bytes, Update.class);
+    } catch (JsonProcessingException e) {
+      if (Settings.IMP.MAIN.DEBUG) {
+        e.printStackTrace(); // printStackTrace is necessary there
+      }
+
+      exchange.sendResponseHeaders(400, -1);
+      return;
+    }
+
+    // Telegram resends the update until it receives a response, so it is acknowledged before the processing
+    exchange.sendResponseHeaders(200, -1);
+    this.onUpdate.accept(update);
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.vk.api.sdk.client.ClientResponse;
+import com.vk.api.sdk.client.TransportClient;
+import com.vk.api.sdk.client.VkApiClient;
+import com.vk.api.sdk.client.actors.GroupActor;
+import com.vk.api.sdk.exceptions.ApiException;
+import com.vk.api.sdk.exceptions.ClientException;
+import com.vk.api.sdk.objects.groups.responses.GetLongPollServerResponse;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.slf4j.Logger;
+
+// Bots Long Poll loop that survives any failure, the updates are handled on a separate thread in the received order.
+public class VKLongPoller {
+
+  private static final int WAIT_SECONDS = 25;
+  private static final long MIN_BACKOFF_MILLIS = 1000;
+  private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+  private final VkApiClient vk;
+  private final TransportClient transport;
+  private final GroupActor actor;
+  private final Path tsFile;
+  private final Logger logger;
+  private final Consumer<JsonObject> onUpdate;
+  private final ExecutorService worker;
+
+  private volatile boolean running;
+  private Thread thread;
+  // Accessed only by the worker thread
+  private String savedTs;
+
+  private String server;
+  private String key;
+  private String ts;
+
+  public VKLongPoller(VkApiClient vk, TransportClient transport, GroupActor actor, Path tsFile, Logger logger, Consumer<JsonObject> onUpdate) {
+    this.vk = vk;
+    this.transport = transport;
+    this.actor = actor;
+    this.tsFile = tsFile;
+    this.logger = logger;
+    this.onUpdate = onUpdate;
+    this.worker = Executors.newSingleThreadExecutor(runnable -> {
+      Thread workerThread = new Thread(runnable, "LimboAuth-SocialAddon-VK-Updates");
+      workerThread.setDaemon(true);
+      return workerThread;
+    });
+  }
+
+  public synchronized void start() {
+    if (this.running) {
+      return;
+    }
+
+    this.ts = this.loadTs();
+    this.savedTs = this.ts;
+    this.running = true;
+    this.thread = new Thread(this::supervise, "LimboAuth-SocialAddon-VK-LongPoll");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  public synchronized void stop() {
+    this.running = false;
+    if (this.thread != null) {
+      this.thread.interrupt();
+    }
+
+    // The updates that are already received are handed over, so the saved timestamp doesn't skip them
+    this.worker.shutdown();
+    try {
+      if (!this.worker.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        this.logger.warn("VK long poll updates were not handled in {} ms, they will be received again after restart", STOP_TIMEOUT_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void supervise() {
+    int failures = 0;
+    while (this.running) {
+      try {
+        if (this.key == null) {
+          this.fetchServer();
+        }
+
+        this.poll();
+        failures = 0;
+      } catch (Exception e) {
+        if (!this.running) {
+          return;
+        }
+
+        // The key may be the cause, so the server is requested again after a failure
+        this.key = null;
+        long backoff = this.backoff(++failures);
+        this.logger.warn("VK long poll failed ({} in a row), retrying in {} ms: {}", failures, backoff, e.toString());
+        if (Settings.IMP.MAIN.DEBUG) {
+          e.printStackTrace(); // printStackTrace is necessary there
+        }
+
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ignored) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void fetchServer() throws ApiException, ClientException {
+    GetLongPollServerResponse serverInfo = this.vk.groups().getLongPollServer(this.actor, this.actor.getGroupId()).execute();
+    this.server = serverInfo.getServer();
+    this.key = serverInfo.getKey();
+    if (this.ts == null) {
+      this.ts = serverInfo.getTs();
+    }
+  }
+
+  private void poll() throws IOException {
+    String url = this.server + "?act=a_check&key=" + URLEncoder.encode(this.key, StandardCharsets.UTF_8)
+        + "&ts=" + URLEncoder.encode(this.ts, StandardCharsets.UTF_8) + "&wait=" + WAIT_SECONDS;
+    ClientResponse response = this.transport.get(url);
+    if (!this.running) {
+      return;
+    }
+
+    if (response.getStatusCode() != 200) {
+      throw new IOException("VK long poll server responded with HTTP " + response.getStatusCode());
+    }
+
+    JsonObject result = JsonParser.parseString(response.getContent()).getAsJsonObject();
+    if (result.has("failed")) {
+      int failed = result.get("failed").getAsInt();
+      switch (failed) {
+        case 1: {
+          // Part of the event history is lost, the polling continues from the given ts
+          this.logger.warn("VK long poll event history is outdated, some messages may have been lost");
+          this.updateTs(result.get("ts").getAsString());
+          break;
+        }
+        case 2: {
+          this.key = null;
+          break;
+        }
+        case 3: {
+          this.key = null;
+          this.ts = null;
+          break;
+        }
+        default: {
+          throw new IOException("Unknown VK long poll failure: " + failed);
+        }
+      }
+
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    long lag = 0;
+    for (JsonElement element : result.getAsJsonArray("updates")) {
+      JsonObject update = element.getAsJsonObject();
+      lag = Math.max(lag, this.getLag(update, now));
+      this.worker.execute(() -> this.onUpdate.accept(update));
+    }
+
+    if (lag > Settings.IMP.MAIN.VK.LONG_POLL_LAG_WARN_MILLIS) {
+      this.logger.warn("VK long poll is {} ms behind", lag);
+    }
+
+    this.updateTs(result.get("ts").getAsString());
+  }
+
+  private long getLag(JsonObject update, long now) {
+    JsonElement object = update.get("object");
+    if (object == null || !object.isJsonObject()) {
+      return 0;
+    }
+
+    JsonElement message = object.getAsJsonObject().get("message");
+    if (message == null || !message.isJsonObject() || !message.getAsJsonObject().has("date")) {
+      return 0;
+    }
+
+    return Math.max(0, now - message.getAsJsonObject().get("date").getAsLong() * 1000);
+  }
+
+  private long backoff(int failures) {
+    long max = Math.max(Settings.IMP.MAIN.VK.LONG_POLL_MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS);
+    long backoff = Math.min(max, MIN_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+
+  private String loadTs() {
+    try {
+      if (Files.exists(this.tsFile)) {
+        String persistedTs = Files.readString(this.tsFile).trim();
+        return persistedTs.isEmpty() ? null : persistedTs;
+      }
+    } catch (IOException e) {
+      this.logger.warn("Unable to read the VK long poll timestamp: {}", e.toString());
+    }
+
+    return null;
+  }
+
+  // The timestamp is saved by the worker after the previous updates are handled, so a restart doesn't skip the pending ones
+  private void updateTs(String newTs) {
+    this.ts = newTs;
+    this.worker.execute(() -> this.saveTs(newTs));
+  }
+
+  private void saveTs(String newTs) {
+    if (newTs.equals(this.savedTs)) {
+      return;
+    }
+
+    this.savedTs = newTs;
+    try {
+      Path tempFile = this.tsFile.resolveSibling(this.tsFile.getFileName() + ".tmp");
+      Files.writeString(tempFile, newTs);
+      Files.move(tempFile, this.tsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      this.logger.warn("Unable to save the VK long poll timestamp: {}", e.toString());
+    }
+  }
+}
@@ -17,39 +17,77 @@
 
 package net.elytrium.limboauth.socialaddon.social;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.vk.api.sdk.actions.LongPoll;
-import com.vk.api.sdk.client.TransportClient;
+import com.vk.api.sdk.client.AbstractQueryBuilder;
 import com.vk.api.sdk.client.VkApiClient;
 import com.vk.api.sdk.client.actors.GroupActor;
 import com.vk.api.sdk.exceptions.ApiException;
+import com.vk.api.sdk.exceptions.ApiTooManyException;
 import com.vk.api.sdk.exceptions.ClientException;
-import com.vk.api.sdk.exceptions.LongPollServerKeyExpiredException;
-import com.vk.api.sdk.httpclient.HttpTransportClient;
-import com.vk.api.sdk.objects.callback.longpoll.responses.GetLongPollEventsResponse;
-import com.vk.api.sdk.objects.groups.responses.GetLongPollServerResponse;
 import com.vk.api.sdk.objects.messages.Keyboard;
 import com.vk.api.sdk.objects.messages.KeyboardButton;
 import com.vk.api.sdk.objects.messages.KeyboardButtonAction;
 import com.vk.api.sdk.objects.messages.KeyboardButtonColor;
 import com.vk.api.sdk.objects.messages.TemplateActionTypeNames;
+import com.vk.api.sdk.queries.messages.MessagesSendQuery;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import net.elytrium.limboauth.socialaddon.Settings;
 import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import org.slf4j.Logger;
 
 public class VKSocial extends AbstractSocial {
-  private final VkApiClient vk;
-  private GroupActor actor;
-  private boolean polling;
 
-  public VKSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked) {
-    super(onMessageReceived, onButtonClicked);
+  // VK doesn't tell when the limit resets, the request rate limit is per second
+  private static final long TOO_MANY_REQUESTS_RETRY_MILLIS = 1000L;
+  private static final String LONG_POLL_TS_FILE = "vk-long-poll.ts";
+  // The execute method runs up to 25 API calls per request
+  private static final int MAX_EXECUTE_CALLS = 25;
+  private static final int TOO_MANY_REQUESTS_ERROR = 6;
+  private static final String API_URL = "https://api.vk.com/";
 
-    TransportClient transportClient = new HttpTransportClient();
-    this.vk = new VkApiClient(transportClient);
+  private final VKTransportClient apiTransport;
+  private final VKTransportClient longPollTransport;
+  private final VkApiClient vk;
+  private final ExecutorService sender;
+  private final KeyboardCache<Keyboard> keyboards = new KeyboardCache<>(this::renderKeyboard);
+  private final Path dataDirectory;
+  private final Logger logger;
+  private GroupActor actor;
+  private VKLongPoller poller;
+
+  public VKSocial(SocialMessageListener onMessageReceived, SocialButtonListener onButtonClicked, Path dataDirectory, Logger logger) {
+    super(onMessageReceived, onButtonClicked, logger, Settings.IMP.MAIN.VK.MESSAGES_PER_SECOND,
+        Math.min(Settings.IMP.MAIN.VK.BATCH_SIZE, MAX_EXECUTE_CALLS));
+    this.dataDirectory = dataDirectory;
+    this.logger = logger;
+
+    this.apiTransport = new VKTransportClient(Settings.IMP.MAIN.VK.HTTP.API_CONNECTIONS, Settings.IMP.MAIN.VK.HTTP.API_SOCKET_TIMEOUT_MILLIS);
+    this.longPollTransport = new VKTransportClient(Settings.IMP.MAIN.VK.HTTP.LONG_POLL_CONNECTIONS,
+        Settings.IMP.MAIN.VK.HTTP.LONG_POLL_SOCKET_TIMEOUT_MILLIS);
+    this.vk = new VkApiClient(this.apiTransport);
+
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.sender = Executors.newFixedThreadPool(Settings.IMP.MAIN.OUTBOUND.SENDER_THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "LimboAuth-SocialAddon-VK-Sender-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   @Override
@@ -57,18 +95,28 @@ public class VKSocial extends AbstractSocial {
     return Settings.IMP.MAIN.VK.ENABLED;
   }
 
+  @Override
+  public void stopReceiving() {
+    if (this.poller != null) {
+      this.poller.stop();
+    }
+
+    this.longPollTransport.close();
+  }
+
   @Override
   public void stop() {
-    this.polling = false;
+    this.sender.shutdown();
+    this.apiTransport.close();
   }
 
   @Override
   public void start() throws SocialInitializationException {
-    if (this.polling) {
+    if (this.poller != null) {
       return;
     }
 
-    this.polling = true;
+    this.apiTransport.warmUp(API_URL, this.sender);
 
     try {
       GroupActor tempActor = new GroupActor(0, Settings.IMP.MAIN.VK.TOKEN);
@@ -83,60 +131,38 @@ public class VKSocial extends AbstractSocial {
       throw new SocialInitializationException(e);
     }
 
-    new Thread(() -> {
-      while (this.polling) {
-        try {
-          GetLongPollServerResponse serverInfo = this.vk.groups().getLongPollServer(this.actor, this.actor.getGroupId()).execute();
-          LongPoll longPoll = new LongPoll(this.vk);
-
-          String server = serverInfo.getServer();
-          String key = serverInfo.getKey();
-          String ts = serverInfo.getTs();
-          while (this.polling) {
-            GetLongPollEventsResponse longPollResponse = longPoll.getEvents(server, key, ts).waitTime(25).execute();
-            ts = longPollResponse.getTs();
-
-            longPollResponse.getUpdates().forEach(e -> {
-              if (e.has("type") && e.has("object")) {
-                String type = e.get("type").getAsString();
-                JsonObject object = e.get("object").getAsJsonObject();
-
-                if (object != null) {
-                  switch (type) {
-                    case "message_new": {
-                      this.onMessageNew(object);
-                      break;
-                    }
-                    case "message_event": {
-                      this.onMessageEvent(object);
-                      break;
-                    }
-                    default: {
-                      // ignored
-                      break;
-                    }
-                  }
-                }
-              }
-            });
+    this.poller = new VKLongPoller(this.vk, this.longPollTransport, this.actor,
+        this.dataDirectory.resolve(LONG_POLL_TS_FILE), this.logger, this::onUpdate);
+    this.poller.start();
+  }
+
+  private void onUpdate(JsonObject update) {
+    if (update.has("type") && update.has("object")) {
+      String type = update.get("type").getAsString();
+      JsonObject object = update.get("object").getAsJsonObject();
+
+      if (object != null) {
+        switch (type) {
+          case "message_new": {
+            this.onMessageNew(object);
+            break;
+          }
+          case "message_event": {
+            this.onMessageEvent(object);
+            break;
           }
-        } catch (LongPollServerKeyExpiredException ignored) {
-          // ignored
-        } catch (ClientException | ApiException e) {
-          e.printStackTrace(); // printStackTrace is necessary there
-          try {
-            Thread.sleep(5000);
-          } catch (InterruptedException ex) {
-            throw new RuntimeException(ex);
+          default: {
+            // ignored
+            break;
           }
         }
       }
-    }).start();
+    }
   }
 
   @Override
-  public String getDbField() {
-    return SocialPlayer.VK_DB_FIELD;
+  public SocialPlayer.DatabaseField getDbField() {
+    return SocialPlayer.DatabaseField.VK_ID;
   }
 
   @Override
@@ -150,7 +176,101 @@ public class VKSocial extends AbstractSocial {
   }
 
   @Override
-  public void sendMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+  public void registerKeyboard(List<List<ButtonItem>> keyboard) {
+    this.keyboards.register(keyboard);
+  }
+
+  @Override
+  protected CompletableFuture<?> deliverMessage(Long id, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    MessagesSendQuery query = this.vk.messages()
+        .send(this.actor)
+        .userId(id.intValue())
+        .message(content)
+        .randomId(ThreadLocalRandom.current().nextInt());
+
+    Keyboard keyboard = this.keyboards.get(buttons, visibility);
+    if (keyboard != null) {
+      query.keyboard(keyboard);
+    }
+
+    // VK SDK only has blocking requests, so they are executed on a separate pool
+    return CompletableFuture.runAsync(() -> {
+      try {
+        query.execute();
+      } catch (ApiTooManyException e) {
+        throw new CompletionException(new RetryAfterException(TOO_MANY_REQUESTS_RETRY_MILLIS, e));
+      } catch (ClientException | ApiException e) {
+        throw new CompletionException(e);
+      }
+    }, this.sender);
+  }
+
+  // Messages with the same content and keyboard are merged into one peer_ids call, the calls are packed into one execute request.
+  // A batch never has more messages than MAX_EXECUTE_CALLS, so it always fits into a single request.
+  @Override
+  protected List<? extends CompletableFuture<?>> deliverMessages(List<OutboundMessage> messages) {
+    if (messages.size() == 1) {
+      return super.deliverMessages(messages);
+    }
+
+    List<CompletableFuture<Void>> deliveries = new ArrayList<>(messages.size());
+    List<BatchCall> calls = new ArrayList<>();
+    Map<BatchKey, BatchCall> openCalls = new HashMap<>();
+    for (OutboundMessage message : messages) {
+      CompletableFuture<Void> delivery = new CompletableFuture<>();
+      deliveries.add(delivery);
+
+      BatchKey key = new BatchKey(message.getContent(), this.keyboards.get(message.getButtons(), message.getVisibility()));
+      int peerId = message.getId().intValue();
+      BatchCall call = openCalls.get(key);
+      // The same user can't be listed twice in one call
+      if (call == null || call.deliveries.containsKey(peerId)) {
+        call = new BatchCall(key);
+        calls.add(call);
+        openCalls.put(key, call);
+      }
+
+      call.deliveries.computeIfAbsent(peerId, ignored -> new ArrayList<>()).add(delivery);
+    }
+
+    List<AbstractQueryBuilder<?, ?>> queries = new ArrayList<>(calls.size());
+    for (BatchCall call : calls) {
+      MessagesSendQuery query = this.vk.messages()
+          .send(this.actor)
+          .peerIds(new ArrayList<>(call.deliveries.keySet()))
+          .message(call.key.content)
+          .randomId(ThreadLocalRandom.current().nextInt());
+
+      if (call.key.keyboard != null) {
+        query.keyboard(call.key.keyboard);
+      }
+
+      queries.add(query);
+    }
+
+    this.sender.execute(() -> {
+      try {
+        JsonElement response = this.vk.execute().batch(this.actor, queries.toArray(new AbstractQueryBuilder<?, ?>[0])).execute();
+        JsonArray results = response.isJsonArray() ? response.getAsJsonArray() : new JsonArray();
+        for (int i = 0; i < calls.size(); ++i) {
+          calls.get(i).complete(i < results.size() ? results.get(i) : null);
+        }
+      } catch (ApiTooManyException e) {
+        RetryAfterException retryAfter = new RetryAfterException(TOO_MANY_REQUESTS_RETRY_MILLIS, e);
+        deliveries.forEach(delivery -> delivery.completeExceptionally(retryAfter));
+      } catch (Throwable e) {
+        deliveries.forEach(delivery -> delivery.completeExceptionally(e));
+      }
+    });
+
+    return deliveries;
+  }
+
+  private Keyboard renderKeyboard(List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
+    if (buttons.isEmpty()) {
+      return null;
+    }
+
     List<List<KeyboardButton>> vkButtons = buttons.stream().map(row -> row.stream().map(button -> {
       KeyboardButtonColor color;
       switch (button.getColor()) {
@@ -182,43 +302,10 @@ public class VKSocial extends AbstractSocial {
                   .setPayload(payload.toString()));
     }).collect(Collectors.toList())).collect(Collectors.toList());
 
-    try {
-      if (buttons.isEmpty()) {
-        this.vk.messages()
-                .send(this.actor)
-                .userId(id.intValue())
-                .message(content)
-                .randomId(ThreadLocalRandom.current().nextInt())
-                .execute();
-      } else {
-        Keyboard keyboard = new Keyboard()
-                .setButtons(vkButtons)
-                .setInline(visibility == ButtonVisibility.PREFER_INLINE)
-                .setOneTime(false);
-
-        this.vk.messages()
-                .send(this.actor)
-                .userId(id.intValue())
-                .message(content)
-                .keyboard(keyboard)
-                .randomId(ThreadLocalRandom.current().nextInt())
-                .execute();
-      }
-    } catch (ClientException | ApiException e) {
-      if (Settings.IMP.MAIN.DEBUG) {
-        e.printStackTrace(); // printStackTrace is necessary there
-      }
-    }
-  }
-
-  @Override
-  public void sendMessage(SocialPlayer player, String content, List<List<ButtonItem>> buttons, ButtonVisibility visibility) {
-    this.sendMessage(player.getVkID(), content, buttons, visibility);
-  }
-
-  @Override
-  public boolean canSend(SocialPlayer player) {
-    return player.getVkID() != null;
+    return new Keyboard()
+        .setButtons(vkButtons)
+        .setInline(visibility == ButtonVisibility.PREFER_INLINE)
+        .setOneTime(false);
   }
 
   public void onMessageNew(JsonObject messageNew) {
@@ -226,7 +313,7 @@ public class VKSocial extends AbstractSocial {
       JsonObject message = messageNew.get("message").getAsJsonObject();
 
       if (message.has("text")) {
-        this.proceedMessage(SocialPlayer.VK_DB_FIELD, message.get("from_id").getAsLong(), message.get("text").getAsString());
+        this.proceedMessage(SocialPlayer.DatabaseField.VK_ID, message.get("from_id").getAsLong(), message.get("text").getAsString());
       }
     }
   }
@@ -247,8 +334,77 @@ public class VKSocial extends AbstractSocial {
       }
 
       if (payload.has("button")) {
-        this.proceedButton(SocialPlayer.VK_DB_FIELD, (long) userId, payload.get("button").getAsString());
+        this.proceedButton(SocialPlayer.DatabaseField.VK_ID, (long) userId, payload.get("button").getAsString());
+      }
+    }
+  }
+
+  private static class BatchKey {
+
+    private final String content;
+    private final Keyboard keyboard;
+
+    BatchKey(String content, Keyboard keyboard) {
+      this.content = content;
+      this.keyboard = keyboard;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
       }
+
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+
+      BatchKey batchKey = (BatchKey) o;
+      return Objects.equals(this.content, batchKey.content) && Objects.equals(this.keyboard, batchKey.keyboard);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.content, this.keyboard);
+    }
+  }
+
+  private static class BatchCall {
+
+    private final BatchKey key;
+    private final Map<Integer, List<CompletableFuture<Void>>> deliveries = new LinkedHashMap<>();
+
+    BatchCall(BatchKey key) {
+      this.key = key;
+    }
+
+    // messages.send with peer_ids returns an array of {peer_id, message_id, error}, a failed call inside execute returns false
+    private void complete(JsonElement result) {
+      if (result != null && result.isJsonArray()) {
+        for (JsonElement element : result.getAsJsonArray()) {
+          JsonObject item = element.getAsJsonObject();
+          List<CompletableFuture<Void>> peerDeliveries = item.has("peer_id") ? this.deliveries.remove(item.get("peer_id").getAsInt()) : null;
+          if (peerDeliveries == null) {
+            continue;
+          }
+
+          if (item.has("error")) {
+            JsonObject error = item.get("error").getAsJsonObject();
+            int code = error.has("code") ? error.get("code").getAsInt() : 0;
+            String description = error.has("description") ? error.get("description").getAsString() : "Unknown error";
+            Exception e = new ClientException("messages.send failed for " + item.get("peer_id").getAsInt() + ": " + description + " (" + code + ")");
+            Exception cause = code == TOO_MANY_REQUESTS_ERROR ? new RetryAfterException(TOO_MANY_REQUESTS_RETRY_MILLIS, e) : e;
+            peerDeliveries.forEach(delivery -> delivery.completeExceptionally(cause));
+          } else {
+            peerDeliveries.forEach(delivery -> delivery.complete(null));
+          }
+        }
+      }
+
+      this.deliveries.forEach((peerId, peerDeliveries) -> {
+        ClientException e = new ClientException("messages.send failed inside execute for " + peerId);
+        peerDeliveries.forEach(delivery -> delivery.completeExceptionally(e));
+      });
     }
   }
 }
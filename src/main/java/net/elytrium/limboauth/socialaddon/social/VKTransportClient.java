@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import com.vk.api.sdk.client.ClientResponse;
+import com.vk.api.sdk.client.TransportClient;
+import com.vk.api.sdk.httpclient.HttpDeleteWithBody;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+// Keeps up to maxConnections keep-alive connections, so the requests don't wait for new TLS handshakes.
+public class VKTransportClient implements TransportClient {
+
+  private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+  private static final String CONTENT_TYPE_HEADER = "Content-Type";
+  // Stale connections are checked before reuse if they were idle for longer
+  private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+  private final CloseableHttpClient httpClient;
+  private final int maxConnections;
+
+  public VKTransportClient(int maxConnections, int socketTimeoutMillis) {
+    this.maxConnections = Math.max(maxConnections, 1);
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(Settings.IMP.MAIN.VK.HTTP.KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(this.maxConnections);
+    connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+    connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(Settings.IMP.MAIN.VK.HTTP.CONNECT_TIMEOUT_MILLIS)
+        .setConnectionRequestTimeout(Settings.IMP.MAIN.VK.HTTP.CONNECTION_REQUEST_TIMEOUT_MILLIS)
+        .setSocketTimeout(socketTimeoutMillis)
+        .build();
+
+    this.httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(Settings.IMP.MAIN.VK.HTTP.KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  // Opens the pooled connections in parallel, the responses are ignored
+  public CompletableFuture<Void> warmUp(String url, Executor executor) {
+    CompletableFuture<?>[] connections = new CompletableFuture<?>[this.maxConnections];
+    for (int i = 0; i < this.maxConnections; ++i) {
+      connections[i] = CompletableFuture.runAsync(() -> {
+        try {
+          this.call(new HttpHead(url));
+        } catch (IOException e) {
+          if (Settings.IMP.MAIN.DEBUG) {
+            e.printStackTrace(); // printStackTrace is necessary there
+          }
+        }
+      }, executor);
+    }
+
+    return CompletableFuture.allOf(connections);
+  }
+
+  public void close() {
+    try {
+      this.httpClient.close();
+    } catch (IOException e) {
+      e.printStackTrace(); // printStackTrace is necessary there
+    }
+  }
+
+  @Override
+  public ClientResponse post(String url, String body) throws IOException {
+    return this.post(url, body, FORM_CONTENT_TYPE);
+  }
+
+  @Override
+  public ClientResponse post(String url, String fileName, File file) throws IOException {
+    HttpPost request = new HttpPost(url);
+    request.setEntity(MultipartEntityBuilder.create().addBinaryBody(fileName, file).build());
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse post(String url, String body, String contentType) throws IOException {
+    HttpPost request = new HttpPost(url);
+    request.setHeader(CONTENT_TYPE_HEADER, contentType);
+    setBody(request, body);
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse post(String url) throws IOException {
+    return this.post(url, null);
+  }
+
+  @Override
+  public ClientResponse post(String url, String body, Header[] headers) throws IOException {
+    HttpPost request = new HttpPost(url);
+    request.setHeader(CONTENT_TYPE_HEADER, FORM_CONTENT_TYPE);
+    setHeaders(request, headers);
+    setBody(request, body);
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse get(String url) throws IOException {
+    return this.get(url, FORM_CONTENT_TYPE);
+  }
+
+  @Override
+  public ClientResponse get(String url, String contentType) throws IOException {
+    HttpGet request = new HttpGet(url);
+    request.setHeader(CONTENT_TYPE_HEADER, contentType);
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse get(String url, Header[] headers) throws IOException {
+    HttpGet request = new HttpGet(url);
+    request.setHeader(CONTENT_TYPE_HEADER, FORM_CONTENT_TYPE);
+    setHeaders(request, headers);
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse delete(String url) throws IOException {
+    return this.delete(url, null, FORM_CONTENT_TYPE);
+  }
+
+  @Override
+  public ClientResponse delete(String url, String body) throws IOException {
+    return this.delete(url, body, FORM_CONTENT_TYPE);
+  }
+
+  @Override
+  public ClientResponse delete(String url, String body, String contentType) throws IOException {
+    HttpDeleteWithBody request = new HttpDeleteWithBody(url);
+    request.setHeader(CONTENT_TYPE_HEADER, contentType);
+    setBody(request, body);
+    return this.call(request);
+  }
+
+  @Override
+  public ClientResponse delete(String url, String body, Header[] headers) throws IOException {
+    HttpDeleteWithBody request = new HttpDeleteWithBody(url);
+    request.setHeader(CONTENT_TYPE_HEADER, FORM_CONTENT_TYPE);
+    setHeaders(request, headers);
+    setBody(request, body);
+    return this.call(request);
+  }
+
+  private ClientResponse call(HttpRequestBase request) throws IOException {
+    // The entity has to be fully consumed, otherwise the connection is not returned to the pool
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      HttpEntity entity = response.getEntity();
+      String content = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+
+      Map<String, String> headers = new HashMap<>();
+      for (Header header : response.getAllHeaders()) {
+        headers.put(header.getName(), header.getValue());
+      }
+
+      return new ClientResponse(response.getStatusLine().getStatusCode(), content, headers);
+    }
+  }
+
+  private static void setHeaders(HttpRequestBase request, Header[] headers) {
+    for (Header header : headers) {
+      request.setHeader(header);
+    }
+  }
+
+  // The Content-Type header of the request takes precedence over the one of the entity
+  private static void setBody(HttpEntityEnclosingRequestBase request, String body) {
+    if (body != null) {
+      request.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -18,94 +18,452 @@
 package net.elytrium.limboauth.socialaddon.utils;
 
 import com.maxmind.db.CHMCache;
+import com.maxmind.db.NoCache;
+import com.maxmind.db.NodeCache;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.CountryResponse;
 import com.maxmind.geoip2.record.AbstractNamedRecord;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.ByteArrayInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.GZIPInputStream;
 import net.elytrium.commons.config.Placeholders;
 import net.elytrium.limboauth.socialaddon.Settings;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
 
 public class GeoIp {
 
-  private final DatabaseReader reader;
+  private static final int IPV4_BITS = 32;
+  private static final int IPV6_BITS = 64;
+  private static final long MIN_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final String DATABASE_EXTENSION = ".mmdb";
+
   private final boolean cityEnabled;
+  private final Path directory;
+  private final String databaseName;
+  private final Logger logger;
+  private final ScheduledExecutorService updater;
+  private final LocationCache ipv4Cache;
+  private final LocationCache ipv6Cache;
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private volatile ReaderHandle handle;
+  private int failedUpdates;
 
-  @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
-  public GeoIp(Path dataPath) {
+  public GeoIp(Path dataPath, Logger logger) {
     this.cityEnabled = Settings.IMP.MAIN.GEOIP.FORMAT.contains("{CITY}");
+    this.ipv4Cache = new LocationCache(Settings.IMP.MAIN.GEOIP.CACHE_IPV4_PREFIX, IPV4_BITS);
+    this.ipv6Cache = new LocationCache(Settings.IMP.MAIN.GEOIP.CACHE_IPV6_PREFIX, IPV6_BITS);
+    this.directory = dataPath.toAbsolutePath();
+    this.databaseName = this.cityEnabled ? "city" : "country";
+    this.logger = logger;
+    this.updater = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "LimboAuth-SocialAddon-GeoIp");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    // The outdated database is still used until the new one is downloaded, the newest one that can be opened is taken
+    List<Path> databases = this.listDatabases();
+    databases.sort(Comparator.comparingLong(this::getVersion).reversed());
+    for (Path database : databases) {
+      try {
+        this.handle = new ReaderHandle(this.openReader(database), database);
+        break;
+      } catch (IOException e) {
+        this.logger.warn("Unable to open the GeoIP database {}: {}", database.getFileName(), e.toString());
+      }
+    }
+
+    this.deleteStaleDatabases();
+    this.updater.execute(this::refresh);
+  }
+
+  public void shutdown() {
+    this.updater.shutdownNow();
+    this.swap(null);
+  }
+
+  // Failed downloads are retried with a backoff, as the file stays outdated until a download succeeds
+  private void refresh() {
+    // Reported on every regular check, the retries of a failed download don't repeat it
+    if (this.failedUpdates == 0 && this.getCacheHits() + this.getCacheMisses() > 0) {
+      this.logger.info("GeoIP location cache: {} hits, {} misses, {}% hit rate",
+          this.getCacheHits(), this.getCacheMisses(), String.format(Locale.ROOT, "%.1f", this.getCacheHitRate() * 100));
+    }
+
+    long checkInterval = Math.max(Settings.IMP.MAIN.GEOIP.UPDATE_CHECK_INTERVAL, 1);
+    ReaderHandle currentHandle = this.handle;
+    if (currentHandle != null && System.currentTimeMillis() - currentHandle.path.toFile().lastModified() <= Settings.IMP.MAIN.GEOIP.UPDATE_INTERVAL) {
+      this.scheduleRefresh(checkInterval);
+      return;
+    }
+
+    try {
+      Path database = this.download();
+      DatabaseReader reader = this.openReader(database);
+      this.swap(new ReaderHandle(reader, database));
+      this.failedUpdates = 0;
+      this.logger.info("GeoIP database was updated, build date: {}", reader.getMetadata().getBuildDate());
+      this.deleteStaleDatabases();
+      this.scheduleRefresh(checkInterval);
+    } catch (IOException | GeneralSecurityException e) {
+      long retryDelay = Math.min(checkInterval, MIN_RETRY_MILLIS << Math.min(this.failedUpdates++, 16));
+      this.logger.error("Unable to update the GeoIP database" + (this.handle == null ? ", locations are unavailable until it is downloaded" : "")
+          + ", the next attempt is in " + retryDelay + " ms", e);
+      this.scheduleRefresh(retryDelay);
+    }
+  }
+
+  private void scheduleRefresh(long delayMillis) {
+    try {
+      this.updater.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shut down while updating
+    }
+  }
+
+  // The old reader is closed after the lookups that have already acquired it are finished, its file is deleted then
+  private synchronized void swap(ReaderHandle newHandle) {
+    if (newHandle != null && this.updater.isShutdown()) {
+      // Downloaded while shutting down, the file is kept for the next start
+      newHandle.release();
+      return;
+    }
+
+    ReaderHandle oldHandle = this.handle;
+    this.handle = newHandle;
+    if (oldHandle != null) {
+      oldHandle.obsolete = newHandle != null;
+      oldHandle.release();
+    }
+
+    this.ipv4Cache.entries.clear();
+    this.ipv6Cache.entries.clear();
+  }
+
+  private ReaderHandle acquire() {
+    while (true) {
+      ReaderHandle currentHandle = this.handle;
+      if (currentHandle == null || currentHandle.tryAcquire()) {
+        return currentHandle;
+      }
+    }
+  }
 
+  // The archive is streamed to a temporary file, the database is moved to a new versioned file only after it has passed the checks.
+  // The file of the current reader is never replaced, as a memory mapped file can't be replaced on Windows.
+  private Path download() throws IOException, GeneralSecurityException {
+    String uri = Placeholders.replace(this.cityEnabled ? Settings.IMP.MAIN.GEOIP.MMDB_CITY_DOWNLOAD
+        : Settings.IMP.MAIN.GEOIP.MMDB_COUNTRY_DOWNLOAD, Settings.IMP.MAIN.GEOIP.LICENSE_KEY);
+    String checksumUri = Placeholders.replace(this.cityEnabled ? Settings.IMP.MAIN.GEOIP.MMDB_CITY_SHA256
+        : Settings.IMP.MAIN.GEOIP.MMDB_COUNTRY_SHA256, Settings.IMP.MAIN.GEOIP.LICENSE_KEY);
+
+    Files.createDirectories(this.directory);
+    Path archive = Files.createTempFile(this.directory, "geoip", ".tar.gz.tmp");
+    Path database = Files.createTempFile(this.directory, "geoip", ".mmdb.tmp");
     try {
-      Path path = dataPath.resolve(this.cityEnabled ? "city.mmdb" : "country.mmdb");
-      if (!Files.exists(path) || (System.currentTimeMillis() - path.toFile().lastModified())
-          > Settings.IMP.MAIN.GEOIP.UPDATE_INTERVAL) {
-        String uri = Placeholders.replace(this.cityEnabled ? Settings.IMP.MAIN.GEOIP.MMDB_CITY_DOWNLOAD
-                : Settings.IMP.MAIN.GEOIP.MMDB_COUNTRY_DOWNLOAD, Settings.IMP.MAIN.GEOIP.LICENSE_KEY);
-
-        ByteArrayInputStream byteStream = new ByteArrayInputStream(IOUtils.toByteArray(new URL(uri).openStream()));
-        try (GZIPInputStream gzip = new GZIPInputStream(byteStream);
-             TarArchiveInputStream tarInputStream = new TarArchiveInputStream(gzip)) {
-          TarArchiveEntry entry;
-          byte[] b = new byte[4096];
-          while ((entry = tarInputStream.getNextTarEntry()) != null) {
-            if (entry.getName().endsWith("mmdb")) {
-              Files.deleteIfExists(path);
-
-              try (FileOutputStream fos = new FileOutputStream(path.toFile())) {
-                int r;
-                while ((r = tarInputStream.read(b)) != -1) {
-                  fos.write(b, 0, r);
-                }
-              }
-            }
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (InputStream input = new DigestInputStream(this.openStream(uri), digest)) {
+        Files.copy(input, archive, StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      if (!checksumUri.isEmpty()) {
+        String expected;
+        try (InputStream input = this.openStream(checksumUri)) {
+          // sha256sum format: "<hash>  <file name>"
+          expected = new String(input.readAllBytes(), StandardCharsets.US_ASCII).trim().split("\\s+")[0];
+        }
+
+        String actual = HexFormat.of().formatHex(digest.digest());
+        if (!actual.equalsIgnoreCase(expected)) {
+          throw new IOException("GeoIP archive checksum mismatch, expected " + expected + ", got " + actual);
+        }
+      }
+
+      boolean extracted = false;
+      try (GZIPInputStream gzip = new GZIPInputStream(Files.newInputStream(archive));
+           TarArchiveInputStream tarInputStream = new TarArchiveInputStream(gzip)) {
+        TarArchiveEntry entry;
+        while ((entry = tarInputStream.getNextTarEntry()) != null) {
+          if (entry.getName().endsWith("mmdb")) {
+            Files.copy(tarInputStream, database, StandardCopyOption.REPLACE_EXISTING);
+            extracted = true;
+            break;
           }
         }
       }
 
-      this.reader = new DatabaseReader.Builder(path.toFile()).withCache(new CHMCache(4096 * 4)).build();
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
+      if (!extracted) {
+        throw new IOException("GeoIP archive doesn't contain a database");
+      }
+
+      // Fails on a truncated or corrupted database, MEMORY mode doesn't keep the file mapped, so it can be moved afterwards
+      try (DatabaseReader check = new DatabaseReader.Builder(database.toFile()).fileMode(Reader.FileMode.MEMORY).build()) {
+        check.getMetadata();
+      }
+
+      Path versioned = this.directory.resolve(this.databaseName + "-" + System.currentTimeMillis() + DATABASE_EXTENSION);
+      Files.move(database, versioned, StandardCopyOption.ATOMIC_MOVE);
+      return versioned;
+    } finally {
+      Files.deleteIfExists(archive);
+      Files.deleteIfExists(database);
+    }
+  }
+
+  private InputStream openStream(String uri) throws IOException {
+    URLConnection connection = new URL(uri).openConnection();
+    connection.setConnectTimeout(Settings.IMP.MAIN.GEOIP.DOWNLOAD_TIMEOUT_MILLIS);
+    connection.setReadTimeout(Settings.IMP.MAIN.GEOIP.DOWNLOAD_TIMEOUT_MILLIS);
+    return connection.getInputStream();
+  }
+
+  private DatabaseReader openReader(Path database) throws IOException {
+    int readerCacheSize = Settings.IMP.MAIN.GEOIP.READER_CACHE_SIZE;
+    NodeCache readerCache = readerCacheSize > 0 ? new CHMCache(readerCacheSize) : NoCache.getInstance();
+    return new DatabaseReader.Builder(database.toFile())
+        .withCache(readerCache)
+        .fileMode(Settings.IMP.MAIN.GEOIP.FILE_MODE)
+        .build();
+  }
+
+  public String getLocation(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    LocationCache cache = bytes.length == 4 ? this.ipv4Cache : this.ipv6Cache;
+    long key = cache.getKey(bytes);
+    String location = cache.entries.get(key);
+    if (location != null) {
+      this.cacheHits.increment();
+      return location;
+    }
+
+    this.cacheMisses.increment();
+    ReaderHandle currentHandle = this.acquire();
+    if (currentHandle == null) {
+      return Settings.IMP.MAIN.GEOIP.DEFAULT_VALUE;
+    }
+
+    try {
+      location = this.lookup(currentHandle.reader, address);
+    } finally {
+      currentHandle.release();
+    }
+
+    if (location == null) {
+      return Settings.IMP.MAIN.GEOIP.DEFAULT_VALUE;
+    }
+
+    // A location from the replaced reader isn't cached, the swap clears the cache under the same lock after replacing the reader
+    synchronized (cache.entries) {
+      if (this.handle == currentHandle) {
+        cache.entries.put(key, location);
+      }
     }
+
+    return location;
+  }
+
+  public long getCacheHits() {
+    return this.cacheHits.sum();
+  }
+
+  public long getCacheMisses() {
+    return this.cacheMisses.sum();
+  }
+
+  public double getCacheHitRate() {
+    long hits = this.cacheHits.sum();
+    long total = hits + this.cacheMisses.sum();
+    return total == 0 ? 0 : (double) hits / total;
   }
 
-  public String getLocation(String ip) {
+  private String lookup(DatabaseReader currentReader, InetAddress address) {
     try {
-      InetAddress address = InetAddress.getByName(ip);
       String city = "";
       String country = "";
       String leastSpecificSubdivision = "";
       String mostSpecificSubdivision = "";
       if (this.cityEnabled) {
-        CityResponse response = this.reader.city(address);
+        CityResponse response = currentReader.city(address);
         city = getName(response.getCity());
         country = getName(response.getCountry());
         leastSpecificSubdivision = getName(response.getLeastSpecificSubdivision());
         mostSpecificSubdivision = getName(response.getMostSpecificSubdivision());
       } else {
-        CountryResponse response = this.reader.country(address);
+        CountryResponse response = currentReader.country(address);
         country = getName(response.getCountry());
       }
 
       return Placeholders.replace(Settings.IMP.MAIN.GEOIP.FORMAT, city, country, leastSpecificSubdivision, mostSpecificSubdivision);
+    } catch (AddressNotFoundException e) {
+      // Local and reserved addresses are not in the database, the default value is cached for them too
+      return Settings.IMP.MAIN.GEOIP.DEFAULT_VALUE;
     } catch (IOException | GeoIp2Exception e) {
       e.printStackTrace(); // printStackTrace is necessary there
-      return Settings.IMP.MAIN.GEOIP.DEFAULT_VALUE;
+      return null;
+    }
+  }
+
+  // Removes the databases that were left by the previous updates, e.g. if they were still mapped on Windows
+  private void deleteStaleDatabases() {
+    ReaderHandle currentHandle = this.handle;
+    for (Path database : this.listDatabases()) {
+      if (currentHandle == null || !database.equals(currentHandle.path)) {
+        deleteDatabase(database);
+      }
+    }
+  }
+
+  private List<Path> listDatabases() {
+    List<Path> databases = new ArrayList<>();
+    if (!Files.isDirectory(this.directory)) {
+      return databases;
+    }
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, this.databaseName + "*" + DATABASE_EXTENSION)) {
+      for (Path database : stream) {
+        if (this.getVersion(database) >= 0) {
+          databases.add(database);
+        }
+      }
+    } catch (IOException e) {
+      this.logger.warn("Unable to list the GeoIP databases: {}", e.toString());
+    }
+
+    return databases;
+  }
+
+  // city-<version>.mmdb, 0 for the unversioned file of the older releases, -1 for the files of other names
+  private long getVersion(Path database) {
+    String fileName = database.getFileName().toString();
+    String version = fileName.substring(this.databaseName.length(), fileName.length() - DATABASE_EXTENSION.length());
+    if (version.isEmpty()) {
+      return 0;
+    }
+
+    if (version.length() < 2 || version.charAt(0) != '-') {
+      return -1;
+    }
+
+    try {
+      return Long.parseLong(version.substring(1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static void deleteDatabase(Path database) {
+    try {
+      Files.deleteIfExists(database);
+    } catch (IOException e) {
+      // Still mapped by the closed reader until it is garbage collected, it is deleted after the next update or restart
+      if (Settings.IMP.MAIN.DEBUG) {
+        e.printStackTrace(); // printStackTrace is necessary there
+      }
     }
   }
 
   private static String getName(AbstractNamedRecord response) {
     return response.getNames().getOrDefault(Settings.IMP.MAIN.GEOIP.LOCALE, Settings.IMP.MAIN.GEOIP.DEFAULT_VALUE);
   }
+
+  // Addresses of the same network prefix usually have the same location, so they share the cached value
+  private static class LocationCache {
+
+    private final Map<Long, String> entries;
+    private final int prefixLength;
+
+    LocationCache(int prefixLength, int maxPrefixLength) {
+      this.prefixLength = Math.max(0, Math.min(prefixLength, maxPrefixLength));
+      int cacheSize = Settings.IMP.MAIN.GEOIP.CACHE_SIZE;
+      this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+          return this.size() > cacheSize;
+        }
+      });
+    }
+
+    private long getKey(byte[] address) {
+      long key = 0;
+      int bits = Math.min(address.length, Long.BYTES) * Byte.SIZE;
+      for (int i = 0; i < bits / Byte.SIZE; ++i) {
+        key = (key << Byte.SIZE) | (address[i] & 0xFF);
+      }
+
+      return this.prefixLength == 0 ? 0 : key >>> (bits - this.prefixLength);
+    }
+  }
+
+  // Counts the lookups using the reader, the GeoIp instance holds one reference until the reader is replaced
+  private static class ReaderHandle {
+
+    private final DatabaseReader reader;
+    private final Path path;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean obsolete;
+
+    ReaderHandle(DatabaseReader reader, Path path) {
+      this.reader = reader;
+      this.path = path;
+    }
+
+    private boolean tryAcquire() {
+      int current;
+      do {
+        current = this.references.get();
+        if (current == 0) {
+          return false;
+        }
+      } while (!this.references.compareAndSet(current, current + 1));
+
+      return true;
+    }
+
+    private void release() {
+      if (this.references.decrementAndGet() == 0) {
+        try {
+          this.reader.close();
+        } catch (IOException e) {
+          e.printStackTrace(); // printStackTrace is necessary there
+        }
+
+        if (this.obsolete) {
+          deleteDatabase(this.path);
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.Arrays;
+
+// Open addressing map with primitive long keys, not thread-safe.
+public class LongObjectHashMap<V> {
+
+  private static final long EMPTY = 0L;
+  private static final float LOAD_FACTOR = 0.75F;
+
+  private long[] keys;
+  private Object[] values;
+  private int mask;
+  private int size;
+  private int resizeThreshold;
+
+  private boolean hasEmptyKey;
+  private V emptyKeyValue;
+
+  public LongObjectHashMap() {
+    this(16);
+  }
+
+  public LongObjectHashMap(int expectedSize) {
+    this.allocate(capacityFor(expectedSize));
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    if (key == EMPTY) {
+      return this.hasEmptyKey ? this.emptyKeyValue : null;
+    }
+
+    int slot = this.slot(key);
+    while (this.keys[slot] != EMPTY) {
+      if (this.keys[slot] == key) {
+        return (V) this.values[slot];
+      }
+
+      slot = (slot + 1) & this.mask;
+    }
+
+    return null;
+  }
+
+  public boolean containsKey(long key) {
+    return this.get(key) != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if (key == EMPTY) {
+      V previous = this.emptyKeyValue;
+      if (!this.hasEmptyKey) {
+        this.hasEmptyKey = true;
+        ++this.size;
+      }
+
+      this.emptyKeyValue = value;
+      return previous;
+    }
+
+    int slot = this.slot(key);
+    while (this.keys[slot] != EMPTY) {
+      if (this.keys[slot] == key) {
+        V previous = (V) this.values[slot];
+        this.values[slot] = value;
+        return previous;
+      }
+
+      slot = (slot + 1) & this.mask;
+    }
+
+    this.keys[slot] = key;
+    this.values[slot] = value;
+    if (++this.size > this.resizeThreshold) {
+      this.rehash(this.keys.length << 1);
+    }
+
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    if (key == EMPTY) {
+      V previous = this.emptyKeyValue;
+      if (this.hasEmptyKey) {
+        this.hasEmptyKey = false;
+        this.emptyKeyValue = null;
+        --this.size;
+      }
+
+      return previous;
+    }
+
+    int slot = this.slot(key);
+    while (this.keys[slot] != EMPTY) {
+      if (this.keys[slot] == key) {
+        V previous = (V) this.values[slot];
+        this.shiftKeys(slot);
+        --this.size;
+        return previous;
+      }
+
+      slot = (slot + 1) & this.mask;
+    }
+
+    return null;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(this.keys, EMPTY);
+    Arrays.fill(this.values, null);
+    this.hasEmptyKey = false;
+    this.emptyKeyValue = null;
+    this.size = 0;
+  }
+
+  // Backward shift deletion, keeps probe sequences intact without tombstones.
+  private void shiftKeys(int slot) {
+    while (true) {
+      int last = slot;
+      slot = (slot + 1) & this.mask;
+
+      long key;
+      while (true) {
+        key = this.keys[slot];
+        if (key == EMPTY) {
+          this.keys[last] = EMPTY;
+          this.values[last] = null;
+          return;
+        }
+
+        int ideal = this.slot(key);
+        if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+          break;
+        }
+
+        slot = (slot + 1) & this.mask;
+      }
+
+      this.keys[last] = key;
+      this.values[last] = this.values[slot];
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+    this.allocate(capacity);
+
+    for (int i = 0; i < oldKeys.length; ++i) {
+      long key = oldKeys[i];
+      if (key != EMPTY) {
+        int slot = this.slot(key);
+        while (this.keys[slot] != EMPTY) {
+          slot = (slot + 1) & this.mask;
+        }
+
+        this.keys[slot] = key;
+        this.values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    this.keys = new long[capacity];
+    this.values = new Object[capacity];
+    this.mask = capacity - 1;
+    this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private int slot(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & this.mask;
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+    return Math.max(capacity, 16);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Config string split by its placeholders once, rendering appends the parts into a single pre-sized builder.
+public final class MessageTemplate {
+
+  private static final int EXPECTED_VALUE_LENGTH = 16;
+
+  private final String[] literals;
+  private final int[] slots;
+  private final String[] placeholders;
+  private final int length;
+
+  private MessageTemplate(String[] literals, int[] slots, String[] placeholders) {
+    this.literals = literals;
+    this.slots = slots;
+    this.placeholders = placeholders;
+
+    int literalLength = 0;
+    for (String literal : literals) {
+      literalLength += literal.length();
+    }
+
+    this.length = literalLength + slots.length * EXPECTED_VALUE_LENGTH;
+  }
+
+  // Placeholders are given in the same order as the values passed to render, as with Placeholders.replace
+  public static MessageTemplate compile(String template, String... placeholders) {
+    List<String> literals = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+
+    int start = 0;
+    while (true) {
+      int nextIndex = -1;
+      int nextSlot = -1;
+      for (int i = 0; i < placeholders.length; ++i) {
+        int index = template.indexOf(placeholders[i], start);
+        if (index != -1 && (nextIndex == -1 || index < nextIndex
+            || (index == nextIndex && placeholders[i].length() > placeholders[nextSlot].length()))) {
+          nextIndex = index;
+          nextSlot = i;
+        }
+      }
+
+      if (nextIndex == -1) {
+        literals.add(template.substring(start));
+        break;
+      }
+
+      literals.add(template.substring(start, nextIndex));
+      slots.add(nextSlot);
+      start = nextIndex + placeholders[nextSlot].length();
+    }
+
+    return new MessageTemplate(literals.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray(), placeholders.clone());
+  }
+
+  public String render(Object... values) {
+    StringBuilder builder = new StringBuilder(this.length);
+    builder.append(this.literals[0]);
+    for (int i = 0; i < this.slots.length; ++i) {
+      int slot = this.slots[i];
+      if (slot < values.length) {
+        builder.append(values[slot]);
+      } else {
+        builder.append(this.placeholders[slot]);
+      }
+
+      builder.append(this.literals[i + 1]);
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Immutable case-insensitive trie, matches whole messages and message prefixes without copying the message.
+public final class PrefixRouter<T> {
+
+  private final Node<T> root;
+
+  private PrefixRouter(Node<T> root) {
+    this.root = root;
+  }
+
+  // Exact match of the whole message wins, otherwise the longest matching prefix is returned
+  public Match<T> route(String message) {
+    Node<T> node = this.root;
+    Match<T> match = null;
+    int length = message.length();
+    for (int i = 0; i < length; ++i) {
+      node = node.child(Character.toLowerCase(message.charAt(i)));
+      if (node == null) {
+        return match;
+      }
+
+      if (node.prefixValue != null) {
+        match = new Match<>(node.prefixValue, i + 1);
+      }
+    }
+
+    if (node.exactValue != null) {
+      return new Match<>(node.exactValue, length);
+    }
+
+    return match;
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  public static final class Match<T> {
+
+    private final T value;
+    private final int length;
+
+    private Match(T value, int length) {
+      this.value = value;
+      this.length = length;
+    }
+
+    public T getValue() {
+      return this.value;
+    }
+
+    public int getLength() {
+      return this.length;
+    }
+  }
+
+  public static final class Builder<T> {
+
+    private final MutableNode<T> root = new MutableNode<>();
+
+    private Builder() {
+
+    }
+
+    public Builder<T> exact(String message, T value) {
+      this.node(message).exactValue = value;
+      return this;
+    }
+
+    public Builder<T> prefix(String prefix, T value) {
+      if (!prefix.isEmpty()) {
+        this.node(prefix).prefixValue = value;
+      }
+
+      return this;
+    }
+
+    public PrefixRouter<T> build() {
+      return new PrefixRouter<>(this.root.freeze());
+    }
+
+    private MutableNode<T> node(String key) {
+      MutableNode<T> node = this.root;
+      for (int i = 0; i < key.length(); ++i) {
+        node = node.children.computeIfAbsent(Character.toLowerCase(key.charAt(i)), c -> new MutableNode<>());
+      }
+
+      return node;
+    }
+  }
+
+  private static final class MutableNode<T> {
+
+    private final Map<Character, MutableNode<T>> children = new TreeMap<>();
+    private T exactValue;
+    private T prefixValue;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<T> freeze() {
+      char[] keys = new char[this.children.size()];
+      Node<T>[] nodes = new Node[this.children.size()];
+      int i = 0;
+      for (Map.Entry<Character, MutableNode<T>> child : this.children.entrySet()) {
+        keys[i] = child.getKey();
+        nodes[i++] = child.getValue().freeze();
+      }
+
+      return new Node<>(keys, nodes, this.exactValue, this.prefixValue);
+    }
+  }
+
+  private static final class Node<T> {
+
+    private final char[] keys;
+    private final Node<T>[] children;
+    private final T exactValue;
+    private final T prefixValue;
+
+    private Node(char[] keys, Node<T>[] children, T exactValue, T prefixValue) {
+      this.keys = keys;
+      this.children = children;
+      this.exactValue = exactValue;
+      this.prefixValue = prefixValue;
+    }
+
+    private Node<T> child(char key) {
+      int index = Arrays.binarySearch(this.keys, key);
+      return index < 0 ? null : this.children[index];
+    }
+  }
+}
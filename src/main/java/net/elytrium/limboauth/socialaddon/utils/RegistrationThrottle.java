@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+
+// Sliding window limiter, every social id may acquire up to limit permits per window.
+// Users are put to the time wheel slot of their expiration, so a purge only visits the slots that have passed.
+public class RegistrationThrottle {
+
+  private static final int WHEEL_SLOTS = 64;
+
+  private final LongObjectHashMap<Window>[] windows;
+  private final List<Window>[] wheel;
+  private final long slotMillis;
+  private long purgedSlot;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public RegistrationThrottle(long windowMillis) {
+    SocialPlayer.DatabaseField[] fields = SocialPlayer.DatabaseField.values();
+    this.windows = new LongObjectHashMap[fields.length];
+    for (int i = 0; i < fields.length; ++i) {
+      this.windows[i] = new LongObjectHashMap<>();
+    }
+
+    this.wheel = new List[WHEEL_SLOTS];
+    for (int i = 0; i < WHEEL_SLOTS; ++i) {
+      this.wheel[i] = new ArrayList<>();
+    }
+
+    this.slotMillis = Math.max(windowMillis / WHEEL_SLOTS, 1);
+    this.purgedSlot = System.currentTimeMillis() / this.slotMillis;
+  }
+
+  // Checks the limit and takes a permit in one step, returns false if the limit is reached
+  public synchronized boolean tryAcquire(SocialPlayer.DatabaseField field, long id, int limit, long windowMillis) {
+    if (limit <= 0) {
+      return false;
+    }
+
+    long now = System.currentTimeMillis();
+    LongObjectHashMap<Window> fieldWindows = this.windows[field.ordinal()];
+    Window window = fieldWindows.get(id);
+    if (window == null) {
+      window = new Window(field, id);
+      fieldWindows.put(id, window);
+    }
+
+    window.slide(now - windowMillis);
+    if (window.size() >= limit) {
+      return false;
+    }
+
+    window.add(now);
+    window.expiresAt = now + windowMillis;
+    long slot = window.expiresAt / this.slotMillis;
+    if (slot != window.slot) {
+      window.slot = slot;
+      this.wheel[(int) (slot % WHEEL_SLOTS)].add(window);
+    }
+
+    return true;
+  }
+
+  public synchronized void purge() {
+    long now = System.currentTimeMillis();
+    // Only the slots that have fully passed are visited, a full turn visits every slot
+    long lastSlot = now / this.slotMillis - 1;
+    long firstSlot = Math.max(this.purgedSlot + 1, lastSlot - WHEEL_SLOTS + 1);
+    for (long slot = firstSlot; slot <= lastSlot; ++slot) {
+      int index = (int) (slot % WHEEL_SLOTS);
+      List<Window> bucket = this.wheel[index];
+      List<Window> remaining = new ArrayList<>();
+      for (Window window : bucket) {
+        LongObjectHashMap<Window> fieldWindows = this.windows[window.field.ordinal()];
+        if (fieldWindows.get(window.id) != window) {
+          continue;
+        }
+
+        if (window.expiresAt <= now) {
+          fieldWindows.remove(window.id);
+        } else if (window.slot > slot && window.slot % WHEEL_SLOTS == index) {
+          // Expires after one or more turns of the wheel, the later acquisitions are put to the other slots
+          remaining.add(window);
+        }
+      }
+
+      this.wheel[index] = remaining;
+    }
+
+    this.purgedSlot = Math.max(this.purgedSlot, lastSlot);
+  }
+
+  public synchronized int size() {
+    int size = 0;
+    for (LongObjectHashMap<Window> fieldWindows : this.windows) {
+      size += fieldWindows.size();
+    }
+
+    return size;
+  }
+
+  private static class Window {
+
+    private final SocialPlayer.DatabaseField field;
+    private final long id;
+    private long[] timestamps = new long[4];
+    private int head;
+    private int size;
+    private long expiresAt;
+    private long slot = -1;
+
+    Window(SocialPlayer.DatabaseField field, long id) {
+      this.field = field;
+      this.id = id;
+    }
+
+    private void slide(long windowStart) {
+      while (this.size > 0 && this.timestamps[this.head] <= windowStart) {
+        this.head = (this.head + 1) % this.timestamps.length;
+        --this.size;
+      }
+    }
+
+    private void add(long timestamp) {
+      if (this.size == this.timestamps.length) {
+        long[] grown = new long[this.timestamps.length * 2];
+        for (int i = 0; i < this.size; ++i) {
+          grown[i] = this.timestamps[(this.head + i) % this.timestamps.length];
+        }
+
+        this.timestamps = grown;
+        this.head = 0;
+      }
+
+      this.timestamps[(this.head + this.size) % this.timestamps.length] = timestamp;
+      ++this.size;
+    }
+
+    private int size() {
+      return this.size;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tasks with the same stripe key are executed one by one in the submission order, different stripes run in parallel.
+public class StripedSerialExecutor {
+
+  private static final int MAX_TASKS_PER_DRAIN = 16;
+
+  private final ExecutorService executor;
+  private final Stripe[] stripes;
+  private final int mask;
+  private final AtomicInteger pendingTasks = new AtomicInteger();
+  private volatile boolean shutdown;
+
+  public StripedSerialExecutor(String name, int threads, int stripes) {
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    int stripeCount = Integer.highestOneBit(Math.max(stripes, 1) * 2 - 1);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; ++i) {
+      this.stripes[i] = new Stripe();
+    }
+
+    this.mask = stripeCount - 1;
+  }
+
+  // Returns false if the executor is shut down, the task is ignored then
+  public boolean execute(int key, Runnable task) {
+    // Counted before the check, so a concurrent shutdown either waits for the task or the task is not submitted
+    this.pendingTasks.incrementAndGet();
+    if (this.shutdown) {
+      this.onTaskFinished();
+      return false;
+    }
+
+    int hash = key * 0x9E3779B9;
+    if (!this.stripes[(hash ^ (hash >>> 16)) & this.mask].submit(task)) {
+      // Rejected only after the shutdown has timed out
+      this.onTaskFinished();
+      return false;
+    }
+
+    return true;
+  }
+
+  // Stops accepting the new tasks and waits until the submitted ones are executed, returns false on timeout
+  public boolean shutdown(long timeoutMillis) throws InterruptedException {
+    this.shutdown = true;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (this.pendingTasks) {
+      long remaining;
+      while (this.pendingTasks.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this.pendingTasks, remaining);
+      }
+    }
+
+    this.executor.shutdown();
+    return this.executor.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS) && this.pendingTasks.get() == 0;
+  }
+
+  private void onTaskFinished() {
+    if (this.pendingTasks.decrementAndGet() == 0 && this.shutdown) {
+      synchronized (this.pendingTasks) {
+        this.pendingTasks.notifyAll();
+      }
+    }
+  }
+
+  private final class Stripe implements Runnable {
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    boolean submit(Runnable task) {
+      this.tasks.add(task);
+      if (this.schedule()) {
+        return true;
+      }
+
+      this.tasks.remove(task);
+      return false;
+    }
+
+    private boolean schedule() {
+      if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+        try {
+          StripedSerialExecutor.this.executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          // The shutdown has timed out, the remaining tasks are dropped
+          this.scheduled.set(false);
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Runnable task;
+        // Give the worker back after a few tasks, so a single busy stripe doesn't starve the others
+        for (int i = 0; i < MAX_TASKS_PER_DRAIN && (task = this.tasks.poll()) != null; ++i) {
+          try {
+            task.run();
+          } catch (Throwable e) {
+            e.printStackTrace(); // printStackTrace is necessary there
+          } finally {
+            StripedSerialExecutor.this.onTaskFinished();
+          }
+        }
+      } finally {
+        this.scheduled.set(false);
+        this.schedule();
+      }
+    }
+  }
+}
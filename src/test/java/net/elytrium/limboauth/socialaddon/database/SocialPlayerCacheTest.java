@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import net.elytrium.limboauth.socialaddon.Settings;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.DaoManager;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.jdbc.JdbcConnectionSource;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.table.TableUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SocialPlayerCacheTest {
+
+  private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+  private static final long TTL_MILLIS = 50;
+
+  private JdbcConnectionSource source;
+  private Dao<SocialPlayer, String> dao;
+  private SocialPlayerCache cache;
+
+  @BeforeAll
+  static void setUpSettings() {
+    Settings.IMP.MAIN = new Settings.MAIN();
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    this.source = new JdbcConnectionSource("jdbc:h2:mem:cache" + DATABASE_COUNTER.incrementAndGet());
+    TableUtils.createTableIfNotExists(this.source, SocialPlayer.class);
+    this.dao = DaoManager.createDao(this.source, SocialPlayer.class);
+    this.cache = new SocialPlayerCache(this.dao, TTL_MILLIS, 100, false, null);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    this.source.close();
+  }
+
+  @Test
+  void expiredPlayerIsReloaded() throws Exception {
+    this.dao.create(new SocialPlayer("player"));
+    Assertions.assertTrue(this.cache.queryForId("player").isNotifyEnabled());
+
+    this.updateNotifyEnabled("player", false);
+    Assertions.assertTrue(this.cache.queryForId("player").isNotifyEnabled());
+
+    Thread.sleep(TTL_MILLIS * 2);
+    Assertions.assertFalse(this.cache.queryForId("player").isNotifyEnabled());
+  }
+
+  @Test
+  void dirtyPlayerIsNotReloaded() throws Exception {
+    this.dao.create(new SocialPlayer("player"));
+    SocialPlayer player = this.cache.queryForId("player");
+    player.setNotifyEnabled(false);
+
+    Thread.sleep(TTL_MILLIS * 2);
+    Assertions.assertSame(player, this.cache.queryForId("player"));
+    Assertions.assertSame(player, this.cache.getIfPresent("player").getPlayer());
+
+    // The polled fields keep the player until the flush is finished
+    int dirtyFields = player.pollDirtyFields();
+    Assertions.assertSame(player, this.cache.queryForId("player"));
+    player.finishFlush(dirtyFields);
+    Assertions.assertNotSame(player, this.cache.queryForId("player"));
+  }
+
+  @Test
+  void socialIdIsLookedUpInTheDatabaseOnIndexMiss() throws Exception {
+    SocialPlayer linked = new SocialPlayer("player");
+    linked.setVkID(1L);
+    this.dao.create(linked);
+
+    SocialPlayer player = this.cache.queryForSocialId(SocialPlayer.DatabaseField.VK_ID, 1L);
+    Assertions.assertNotNull(player);
+    Assertions.assertEquals("player", player.getLowercaseNickname());
+    Assertions.assertNull(this.cache.queryForSocialId(SocialPlayer.DatabaseField.VK_ID, 2L));
+  }
+
+  @Test
+  void staleIndexEntryIsLookedUpInTheDatabase() throws Exception {
+    SocialPlayer linked = new SocialPlayer("old");
+    linked.setVkID(1L);
+    this.dao.create(linked);
+    Assertions.assertEquals("old", this.cache.queryForSocialId(SocialPlayer.DatabaseField.VK_ID, 1L).getLowercaseNickname());
+
+    // Relinked by another proxy
+    this.dao.executeRawNoArgs("UPDATE SOCIAL SET VK_ID = NULL WHERE LOWERCASENICKNAME = 'old'");
+    SocialPlayer relinked = new SocialPlayer("new");
+    relinked.setVkID(1L);
+    this.dao.create(relinked);
+    this.cache.invalidate("old");
+
+    Assertions.assertEquals("new", this.cache.queryForSocialId(SocialPlayer.DatabaseField.VK_ID, 1L).getLowercaseNickname());
+  }
+
+  @Test
+  void linkCreatesPlayer() throws Exception {
+    Assertions.assertNull(this.cache.queryForId("player"));
+    this.cache.linkSocialId("player", SocialPlayer.DatabaseField.TELEGRAM_ID, 5L, false);
+
+    Assertions.assertEquals(5L, this.cache.queryForId("player").getTelegramID());
+    Assertions.assertEquals("player", this.cache.queryForSocialId(SocialPlayer.DatabaseField.TELEGRAM_ID, 5L).getLowercaseNickname());
+    Assertions.assertEquals(5L, this.dao.queryForId("player").getTelegramID());
+  }
+
+  private void updateNotifyEnabled(String lowercaseNickname, boolean notifyEnabled) throws Exception {
+    this.dao.executeRawNoArgs("UPDATE SOCIAL SET NOTIFY_ENABLED = " + notifyEnabled + " WHERE LOWERCASENICKNAME = '" + lowercaseNickname + "'");
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SocialPlayerRepositoryTest {
+
+  private static final int TIMEOUT_SECONDS = 5;
+
+  @Test
+  void queryResultIsReturned() throws Exception {
+    SocialPlayerRepository repository = new SocialPlayerRepository(null, 1, 1);
+    Assertions.assertEquals("result", repository.supplyAsync(() -> "result").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    repository.shutdown();
+  }
+
+  @Test
+  void queryFailureCompletesTheFuture() {
+    SocialPlayerRepository repository = new SocialPlayerRepository(null, 1, 1);
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> repository.runAsync(() -> {
+      throw new IllegalStateException("Expected by the test");
+    }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+    repository.shutdown();
+  }
+
+  @Test
+  void queryOverTheQueueSizeFailsFast() throws Exception {
+    SocialPlayerRepository repository = new SocialPlayerRepository(null, 1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    final CompletableFuture<Void> running = repository.runAsync(() -> {
+      started.countDown();
+      release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    });
+    Assertions.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    final CompletableFuture<String> queued = repository.supplyAsync(() -> "queued");
+    CompletableFuture<String> rejected = repository.supplyAsync(() -> "rejected");
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, rejected::get);
+    Assertions.assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+    release.countDown();
+    running.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Assertions.assertEquals("queued", queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    repository.shutdown();
+  }
+
+  @Test
+  void queryAfterShutdownFailsFast() {
+    SocialPlayerRepository repository = new SocialPlayerRepository(null, 1, 1);
+    repository.shutdown();
+
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> repository.supplyAsync(() -> "late").get());
+    Assertions.assertInstanceOf(RejectedExecutionException.class, e.getCause());
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.database;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import net.elytrium.limboauth.socialaddon.Settings;
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.Dao;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.dao.DaoManager;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.jdbc.JdbcConnectionSource;
+import net.elytrium.limboauth.thirdparty.com.j256.ormlite.table.TableUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.helpers.NOPLogger;
+
+class SocialPlayerWriteBehindTest {
+
+  private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+  private JdbcConnectionSource source;
+  private Dao<SocialPlayer, String> dao;
+  private SocialPlayerCache cache;
+  private SocialPlayerWriteBehind writeBehind;
+
+  @BeforeAll
+  static void setUpSettings() {
+    Settings.IMP.MAIN = new Settings.MAIN();
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    this.source = new JdbcConnectionSource("jdbc:h2:mem:writebehind" + DATABASE_COUNTER.incrementAndGet());
+    TableUtils.createTableIfNotExists(this.source, SocialPlayer.class);
+    this.dao = DaoManager.createDao(this.source, SocialPlayer.class);
+    this.cache = new SocialPlayerCache(this.dao, 60000, 100, false, null);
+    this.writeBehind = new SocialPlayerWriteBehind(this.cache, NOPLogger.NOP_LOGGER);
+    this.dao.create(new SocialPlayer("player"));
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    this.source.close();
+  }
+
+  @Test
+  void togglesAreWrittenOnFlush() throws Exception {
+    SocialPlayer player = this.cache.queryForId("player");
+    player.setNotifyEnabled(false);
+    this.writeBehind.schedule(player);
+    player.setBlocked(true);
+    this.writeBehind.schedule(player);
+
+    Assertions.assertTrue(this.dao.queryForId("player").isNotifyEnabled());
+    this.writeBehind.flush();
+
+    SocialPlayer stored = this.dao.queryForId("player");
+    Assertions.assertFalse(stored.isNotifyEnabled());
+    Assertions.assertTrue(stored.isBlocked());
+    Assertions.assertFalse(player.isDirty());
+  }
+
+  // Only the toggled columns are written, the changes made by someone else to the other columns are kept
+  @Test
+  void onlyDirtyColumnsAreWritten() throws Exception {
+    SocialPlayer player = this.cache.queryForId("player");
+    this.dao.executeRawNoArgs("UPDATE SOCIAL SET BLOCKED = TRUE WHERE LOWERCASENICKNAME = 'player'");
+    player.setNotifyEnabled(false);
+    this.writeBehind.schedule(player);
+    this.writeBehind.flush();
+
+    SocialPlayer stored = this.dao.queryForId("player");
+    Assertions.assertFalse(stored.isNotifyEnabled());
+    Assertions.assertTrue(stored.isBlocked());
+  }
+
+  @Test
+  void failedFlushIsRetried() throws Exception {
+    SocialPlayer player = this.cache.queryForId("player");
+    player.setNotifyEnabled(false);
+    this.writeBehind.schedule(player);
+
+    this.dao.executeRawNoArgs("ALTER TABLE SOCIAL ALTER COLUMN NOTIFY_ENABLED RENAME TO NOTIFY_ENABLED_MOVED");
+    this.writeBehind.flush();
+    Assertions.assertTrue(player.isDirty());
+    Assertions.assertSame(player, this.cache.queryForId("player"));
+
+    this.dao.executeRawNoArgs("ALTER TABLE SOCIAL ALTER COLUMN NOTIFY_ENABLED_MOVED RENAME TO NOTIFY_ENABLED");
+    this.writeBehind.flush();
+    Assertions.assertFalse(player.isDirty());
+    Assertions.assertFalse(this.dao.queryForId("player").isNotifyEnabled());
+  }
+
+  @Test
+  void pendingTogglesAreTakenOverOnReload() throws Exception {
+    SocialPlayer player = this.cache.queryForId("player");
+    player.setTotpEnabled(false);
+    this.writeBehind.schedule(player);
+
+    SocialPlayerWriteBehind reloaded = new SocialPlayerWriteBehind(this.cache, NOPLogger.NOP_LOGGER);
+    reloaded.takeOver(this.writeBehind);
+    this.writeBehind.flush();
+    Assertions.assertTrue(player.isDirty());
+
+    reloaded.flush();
+    Assertions.assertFalse(player.isDirty());
+    Assertions.assertFalse(this.dao.queryForId("player").getTotpEnabledFlag());
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.helpers.NOPLogger;
+
+class OutboundQueueTest {
+
+  private static final int PEERS = 3;
+  private static final int TIMEOUT_SECONDS = 10;
+
+  private final ScheduledExecutorService deliveries = Executors.newScheduledThreadPool(4);
+  private final List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+  private OutboundQueue<Integer> queue;
+
+  @BeforeAll
+  static void setUpSettings() {
+    Settings.IMP.MAIN = new Settings.MAIN();
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (this.queue != null) {
+      this.queue.shutdown();
+    }
+
+    this.deliveries.shutdownNow();
+  }
+
+  // Every seventh message is rate limited once, the deliveries complete in a random order
+  @Test
+  void retriedMessagesAreNotOvertakenByTheSamePeer() throws Exception {
+    Set<Integer> rateLimited = ConcurrentHashMap.newKeySet();
+    this.queue = new OutboundQueue<>("Test", NOPLogger.NOP_LOGGER, 1000, 1000, 3, 4, message -> message % PEERS, messages -> {
+      List<CompletableFuture<?>> results = new ArrayList<>();
+      for (Integer message : messages) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        this.deliveries.schedule(() -> {
+          if (message % 7 == 0 && rateLimited.add(message)) {
+            result.completeExceptionally(new RetryAfterException(5, new Exception("Too many requests")));
+          } else {
+            this.sent.add(message);
+            result.complete(null);
+          }
+        }, ThreadLocalRandom.current().nextInt(1, 10), TimeUnit.MILLISECONDS);
+        results.add(result);
+      }
+
+      return results;
+    });
+
+    List<CompletableFuture<Void>> results = new ArrayList<>();
+    for (int i = 0; i < 60; ++i) {
+      results.add(this.queue.offer(i));
+    }
+
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Assertions.assertEquals(60, this.sent.size());
+    for (int peer = 0; peer < PEERS; ++peer) {
+      int previous = -1;
+      for (int message : this.sent) {
+        if (message % PEERS == peer) {
+          Assertions.assertTrue(message > previous, "Message " + message + " was sent after " + previous);
+          previous = message;
+        }
+      }
+    }
+  }
+
+  @Test
+  void messageIsDroppedAfterMaxRetries() {
+    this.queue = new OutboundQueue<>("Test", NOPLogger.NOP_LOGGER, 1000, 10, 2, 1, message -> message, messages ->
+        List.of(CompletableFuture.failedFuture(new RetryAfterException(1, new Exception("Too many requests")))));
+
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> this.queue.offer(1).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    Assertions.assertInstanceOf(MessageDroppedException.class, e.getCause());
+  }
+
+  @Test
+  void capacityCountsMessagesInFlight() throws Exception {
+    CompletableFuture<Void> delivery = new CompletableFuture<>();
+    this.queue = new OutboundQueue<>("Test", NOPLogger.NOP_LOGGER, 1000, 2, 0, 1, message -> message, messages -> List.of(delivery));
+
+    CompletableFuture<Void> first = this.queue.offer(1);
+    final CompletableFuture<Void> second = this.queue.offer(1);
+    CompletableFuture<Void> third = this.queue.offer(2);
+    Assertions.assertThrows(ExecutionException.class, () -> third.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    delivery.complete(null);
+    first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void shutdownDropsHeldMessages() throws Exception {
+    CompletableFuture<Void> delivery = new CompletableFuture<>();
+    this.queue = new OutboundQueue<>("Test", NOPLogger.NOP_LOGGER, 1000, 10, 0, 1, message -> 0, messages -> List.of(delivery));
+
+    final CompletableFuture<Void> inFlight = this.queue.offer(1);
+    CompletableFuture<Void> held = this.queue.offer(2);
+    this.queue.shutdown(100);
+
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> held.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    Assertions.assertInstanceOf(MessageDroppedException.class, e.getCause());
+    Assertions.assertTrue(this.queue.offer(3).isCompletedExceptionally());
+
+    delivery.complete(null);
+    inFlight.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.social;
+
+import com.google.gson.JsonObject;
+import com.vk.api.sdk.client.ClientResponse;
+import com.vk.api.sdk.client.TransportClient;
+import com.vk.api.sdk.client.VkApiClient;
+import com.vk.api.sdk.client.actors.GroupActor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limboauth.socialaddon.Settings;
+import org.apache.http.Header;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+class VKLongPollerTest {
+
+  private static final int TIMEOUT_SECONDS = 5;
+
+  @TempDir
+  Path directory;
+
+  @BeforeAll
+  static void setUpSettings() {
+    Settings.IMP.MAIN = new Settings.MAIN();
+    Settings.IMP.MAIN.VK = new Settings.MAIN.VK();
+  }
+
+  // failed=1 continues from the given ts, failed=2 requests a new key, failed=3 requests a new key and ts
+  @Test
+  void failuresAreHandledAsDocumented() throws Exception {
+    LongPollTransport transport = new LongPollTransport();
+    List<JsonObject> updates = Collections.synchronizedList(new ArrayList<>());
+    Path tsFile = this.directory.resolve("vk-long-poll.ts");
+    VKLongPoller poller = new VKLongPoller(new VkApiClient(transport), transport, new GroupActor(1, "token"), tsFile, NOPLogger.NOP_LOGGER, updates::add);
+
+    transport.servers.add("{\"response\":{\"server\":\"https://lp.vk.test/1\",\"key\":\"key1\",\"ts\":\"100\"}}");
+    poller.start();
+
+    transport.assertPolled("key1", "100").add("{\"ts\":\"101\",\"updates\":[{\"type\":\"message_new\",\"object\":{}}]}");
+    transport.assertPolled("key1", "101").add("{\"failed\":1,\"ts\":\"150\"}");
+    transport.servers.add("{\"response\":{\"server\":\"https://lp.vk.test/1\",\"key\":\"key2\",\"ts\":\"200\"}}");
+    transport.assertPolled("key1", "150").add("{\"failed\":2}");
+    transport.servers.add("{\"response\":{\"server\":\"https://lp.vk.test/1\",\"key\":\"key3\",\"ts\":\"300\"}}");
+    transport.assertPolled("key2", "150").add("{\"failed\":3}");
+    transport.assertPolled("key3", "300");
+
+    poller.stop();
+    Assertions.assertEquals(1, updates.size());
+    Assertions.assertEquals("150", Files.readString(tsFile));
+  }
+
+  @Test
+  void savedTsIsUsedAfterRestart() throws Exception {
+    LongPollTransport transport = new LongPollTransport();
+    Path tsFile = this.directory.resolve("vk-long-poll.ts");
+    Files.writeString(tsFile, "500");
+    VKLongPoller poller = new VKLongPoller(new VkApiClient(transport), transport, new GroupActor(1, "token"), tsFile, NOPLogger.NOP_LOGGER, update -> {
+    });
+
+    transport.servers.add("{\"response\":{\"server\":\"https://lp.vk.test/1\",\"key\":\"key1\",\"ts\":\"100\"}}");
+    poller.start();
+    transport.assertPolled("key1", "500");
+    poller.stop();
+  }
+
+  // Answers the API requests with the queued getLongPollServer responses and the long poll requests with the queued updates
+  private static class LongPollTransport implements TransportClient {
+
+    private final BlockingQueue<String> servers = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> polls = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+
+    private BlockingQueue<String> assertPolled(String key, String ts) throws InterruptedException {
+      String url = this.polls.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      Assertions.assertNotNull(url, "The long poll server wasn't requested");
+      Assertions.assertTrue(url.contains("key=" + key + "&"), url);
+      Assertions.assertTrue(url.contains("ts=" + ts + "&"), url);
+      return this.responses;
+    }
+
+    @Override
+    public ClientResponse post(String url, String body) throws IOException {
+      String response = this.servers.poll();
+      if (response == null) {
+        throw new IOException("Unexpected API request: " + url);
+      }
+
+      return new ClientResponse(200, response, Map.of("Content-Type", "application/json; charset=utf-8"));
+    }
+
+    @Override
+    public ClientResponse post(String url, String fileName, File file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClientResponse post(String url, String body, String contentType) throws IOException {
+      return this.post(url, body);
+    }
+
+    @Override
+    public ClientResponse post(String url) throws IOException {
+      return this.post(url, null);
+    }
+
+    @Override
+    public ClientResponse post(String url, String body, Header[] headers) throws IOException {
+      return this.post(url, body);
+    }
+
+    @Override
+    public ClientResponse get(String url) throws IOException {
+      this.polls.add(url);
+      try {
+        String response = this.responses.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (response == null) {
+          throw new IOException("No response");
+        }
+
+        return new ClientResponse(200, response, Collections.emptyMap());
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public ClientResponse get(String url, String contentType) throws IOException {
+      return this.get(url);
+    }
+
+    @Override
+    public ClientResponse get(String url, Header[] headers) throws IOException {
+      return this.get(url);
+    }
+
+    @Override
+    public ClientResponse delete(String url) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClientResponse delete(String url, String body) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClientResponse delete(String url, String body, String contentType) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClientResponse delete(String url, String body, Header[] headers) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
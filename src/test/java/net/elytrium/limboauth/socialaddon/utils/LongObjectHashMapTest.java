@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LongObjectHashMapTest {
+
+  @Test
+  void putGetRemove() {
+    LongObjectHashMap<String> map = new LongObjectHashMap<>();
+    Assertions.assertNull(map.put(1, "a"));
+    Assertions.assertEquals("a", map.put(1, "b"));
+    Assertions.assertEquals("b", map.get(1));
+    Assertions.assertEquals(1, map.size());
+    Assertions.assertEquals("b", map.remove(1));
+    Assertions.assertNull(map.get(1));
+    Assertions.assertTrue(map.isEmpty());
+  }
+
+  @Test
+  void zeroKey() {
+    LongObjectHashMap<String> map = new LongObjectHashMap<>();
+    map.put(0, "zero");
+    map.put(16, "sixteen");
+    Assertions.assertEquals("zero", map.get(0));
+    Assertions.assertEquals(2, map.size());
+    Assertions.assertEquals("zero", map.remove(0));
+    Assertions.assertNull(map.get(0));
+    Assertions.assertEquals("sixteen", map.get(16));
+    Assertions.assertEquals(1, map.size());
+  }
+
+  // The removals shift the following keys of the probe sequence back, every other key must stay reachable
+  @Test
+  void removeKeepsProbeSequences() {
+    LongObjectHashMap<Long> map = new LongObjectHashMap<>(4);
+    Map<Long, Long> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; ++i) {
+      // A small key range makes the collisions and the wrap-around at the end of the table frequent
+      long key = random.nextInt(512) - 256;
+      if (random.nextBoolean()) {
+        Assertions.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+      } else {
+        Assertions.assertEquals(expected.remove(key), map.remove(key));
+      }
+
+      Assertions.assertEquals(expected.size(), map.size());
+    }
+
+    for (long key = -256; key < 256; ++key) {
+      Assertions.assertEquals(expected.get(key), map.get(key));
+    }
+  }
+
+  @Test
+  void clear() {
+    LongObjectHashMap<String> map = new LongObjectHashMap<>();
+    for (int i = 0; i < 100; ++i) {
+      map.put(i, String.valueOf(i));
+    }
+
+    map.clear();
+    Assertions.assertTrue(map.isEmpty());
+    Assertions.assertNull(map.get(0));
+    Assertions.assertNull(map.get(50));
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PrefixRouterTest {
+
+  private final PrefixRouter<String> router = PrefixRouter.<String>builder()
+      .exact("/start", "start")
+      .exact("/link", "link-usage")
+      .prefix("/link ", "link")
+      .prefix("/l", "short")
+      .build();
+
+  @Test
+  void exactMatchWinsOverPrefix() {
+    this.assertMatch("/link", "link-usage", 5);
+    this.assertMatch("/start", "start", 6);
+  }
+
+  @Test
+  void longestPrefixIsReturned() {
+    this.assertMatch("/link Nickname", "link", 6);
+    this.assertMatch("/list", "short", 2);
+  }
+
+  @Test
+  void matchIsCaseInsensitive() {
+    this.assertMatch("/START", "start", 6);
+    this.assertMatch("/LINK Nickname", "link", 6);
+  }
+
+  @Test
+  void unknownMessages() {
+    Assertions.assertNull(this.router.route(""));
+    Assertions.assertNull(this.router.route("/"));
+    Assertions.assertNull(this.router.route("/starting"));
+    Assertions.assertNull(this.router.route("hello"));
+  }
+
+  private void assertMatch(String message, String value, int length) {
+    PrefixRouter.Match<String> match = this.router.route(message);
+    Assertions.assertNotNull(match, message);
+    Assertions.assertEquals(value, match.getValue(), message);
+    Assertions.assertEquals(length, match.getLength(), message);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import net.elytrium.limboauth.socialaddon.model.SocialPlayer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RegistrationThrottleTest {
+
+  private static final long WINDOW_MILLIS = 200;
+
+  @Test
+  void limitIsPerSocialId() {
+    RegistrationThrottle throttle = new RegistrationThrottle(WINDOW_MILLIS);
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 2, WINDOW_MILLIS));
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 2, WINDOW_MILLIS));
+    Assertions.assertFalse(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 2, WINDOW_MILLIS));
+
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 2, 2, WINDOW_MILLIS));
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.TELEGRAM_ID, 1, 2, WINDOW_MILLIS));
+  }
+
+  @Test
+  void zeroLimitRejects() {
+    RegistrationThrottle throttle = new RegistrationThrottle(WINDOW_MILLIS);
+    Assertions.assertFalse(throttle.tryAcquire(SocialPlayer.DatabaseField.DISCORD_ID, 1, 0, WINDOW_MILLIS));
+    Assertions.assertEquals(0, throttle.size());
+  }
+
+  @Test
+  void permitsAreReturnedAfterTheWindow() throws InterruptedException {
+    RegistrationThrottle throttle = new RegistrationThrottle(WINDOW_MILLIS);
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 1, WINDOW_MILLIS));
+    Assertions.assertFalse(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 1, WINDOW_MILLIS));
+
+    Thread.sleep(WINDOW_MILLIS + 50);
+    Assertions.assertTrue(throttle.tryAcquire(SocialPlayer.DatabaseField.VK_ID, 1, 1, WINDOW_MILLIS));
+  }
+
+  @Test
+  void purgeRemovesExpiredWindows() throws InterruptedException {
+    RegistrationThrottle throttle = new RegistrationThrottle(WINDOW_MILLIS);
+    for (long id = 0; id < 100; ++id) {
+      throttle.tryAcquire(SocialPlayer.DatabaseField.TELEGRAM_ID, id, 3, WINDOW_MILLIS);
+    }
+
+    throttle.purge();
+    Assertions.assertEquals(100, throttle.size());
+
+    // The expiration slot has to pass completely before it is visited
+    Thread.sleep(WINDOW_MILLIS * 2);
+    throttle.purge();
+    Assertions.assertEquals(0, throttle.size());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboauth.socialaddon.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class StripedSerialExecutorTest {
+
+  @Test
+  void tasksOfTheSameKeyRunInOrder() throws InterruptedException {
+    StripedSerialExecutor executor = new StripedSerialExecutor("Test", 4, 4);
+    List<List<Integer>> executed = new ArrayList<>();
+    for (int key = 0; key < 8; ++key) {
+      executed.add(Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    for (int i = 0; i < 800; ++i) {
+      int key = i % 8;
+      int task = i;
+      Assertions.assertTrue(executor.execute(key, () -> executed.get(key).add(task)));
+    }
+
+    Assertions.assertTrue(executor.shutdown(5000));
+    for (int key = 0; key < 8; ++key) {
+      List<Integer> tasks = executed.get(key);
+      Assertions.assertEquals(100, tasks.size());
+      for (int i = 0; i < tasks.size(); ++i) {
+        Assertions.assertEquals(i * 8 + key, tasks.get(i));
+      }
+    }
+  }
+
+  @Test
+  void shutdownDrainsSubmittedTasks() throws InterruptedException {
+    StripedSerialExecutor executor = new StripedSerialExecutor("Test", 2, 8);
+    AtomicInteger executed = new AtomicInteger();
+    for (int i = 0; i < 200; ++i) {
+      executor.execute(i, () -> {
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        executed.incrementAndGet();
+      });
+    }
+
+    Assertions.assertTrue(executor.shutdown(5000));
+    Assertions.assertEquals(200, executed.get());
+    Assertions.assertFalse(executor.execute(0, executed::incrementAndGet));
+    Assertions.assertEquals(200, executed.get());
+  }
+
+  @Test
+  void shutdownTimesOut() throws InterruptedException {
+    StripedSerialExecutor executor = new StripedSerialExecutor("Test", 1, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(0, () -> {
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    Assertions.assertFalse(executor.shutdown(100));
+    release.countDown();
+  }
+
+  @Test
+  void failingTaskDoesNotStopTheStripe() throws InterruptedException {
+    StripedSerialExecutor executor = new StripedSerialExecutor("Test", 1, 1);
+    AtomicInteger executed = new AtomicInteger();
+    executor.execute(0, () -> {
+      throw new IllegalStateException("Expected by the test");
+    });
+    executor.execute(0, executed::incrementAndGet);
+
+    Assertions.assertTrue(executor.shutdown(5000));
+    Assertions.assertEquals(1, executed.get());
+  }
+}